@@ -0,0 +1,44 @@
+package com.mycompany.httpserver;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+/**
+ * Requires HTTP Basic credentials for paths under a prefix; other requests
+ * pass through. The expected Authorization value is computed once and
+ * compared in constant time.
+ */
+public class BasicAuthFilter implements Filter {
+
+    private static final byte[] UNAUTHORIZED_BODY = "401 Unauthorized".getBytes(StandardCharsets.US_ASCII);
+
+    private final String pathPrefix;
+    private final byte[] expected;
+    private final HttpHeader challenge;
+
+    public BasicAuthFilter(String pathPrefix, String realm, String user, String password) {
+        this.pathPrefix = pathPrefix;
+        this.expected = ("Basic " + Base64.getEncoder()
+                .encodeToString((user + ":" + password).getBytes(StandardCharsets.UTF_8)))
+                .getBytes(StandardCharsets.ISO_8859_1);
+        this.challenge = HttpHeader.of("WWW-Authenticate", "Basic realm=\"" + realm + "\"");
+    }
+
+    @Override
+    public void doFilter(HttpRequest req, HttpResponse res, FilterChain chain) {
+        if (req.requestUri.getPath().startsWith(pathPrefix) && !authorized(req.getHeader("authorization"))) {
+            res.setStatus(HttpStatus.UNAUTHORIZED);
+            res.addHeader(challenge);
+            res.setContentType(HttpHeader.CONTENT_TYPE_TEXT);
+            res.setBody(UNAUTHORIZED_BODY);
+            return;
+        }
+        chain.next(req, res);
+    }
+
+    private boolean authorized(String authorization) {
+        return authorization != null
+                && MessageDigest.isEqual(expected, authorization.getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
@@ -0,0 +1,99 @@
+package com.mycompany.httpserver;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes a chunked message body (RFC 9112, section 7.1), discarding chunk
+ * extensions and trailers. Returns -1 after the last chunk, leaving the
+ * underlying stream positioned at the next message.
+ */
+final class ChunkedInputStream extends FilterInputStream {
+
+    private static final int MAX_LINE_LENGTH = 8192;
+
+    private long remaining;
+    private boolean finished;
+
+    ChunkedInputStream(InputStream in) {
+        super(in);
+    }
+
+    /** True once the last chunk and the trailers were read. */
+    boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            return -1;
+        }
+        if (remaining == 0) {
+            remaining = readChunkSize();
+            if (remaining == 0) {
+                // trailers, up to the empty line
+                while (!readLine().isEmpty()) {
+                }
+                finished = true;
+                return -1;
+            }
+        }
+        int n = in.read(b, off, (int) Math.min(len, remaining));
+        if (n == -1) {
+            throw new EOFException("Chunked body ended early");
+        }
+        remaining -= n;
+        if (remaining == 0 && !readLine().isEmpty()) {
+            throw new IOException("Missing CRLF after chunk");
+        }
+        return n;
+    }
+
+    private long readChunkSize() throws IOException {
+        String line = readLine();
+        int end = line.indexOf(';');
+        String hex = (end < 0 ? line : line.substring(0, end)).trim();
+        if (hex.isEmpty() || hex.length() > 15) {
+            throw new IOException("Invalid chunk size: " + line);
+        }
+        // hex digits only: Long.parseLong would also take a sign
+        long size = 0;
+        for (int i = 0; i < hex.length(); i++) {
+            char c = hex.charAt(i);
+            int digit = c >= '0' && c <= '9' ? c - '0'
+                    : c >= 'a' && c <= 'f' ? c - 'a' + 10
+                    : c >= 'A' && c <= 'F' ? c - 'A' + 10 : -1;
+            if (digit < 0) {
+                throw new IOException("Invalid chunk size: " + line);
+            }
+            size = size << 4 | digit;
+        }
+        return size;
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                throw new EOFException("Chunked body ended early");
+            }
+            if (line.length() >= MAX_LINE_LENGTH) {
+                throw new IOException("Chunk line too long");
+            }
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,57 @@
+package com.mycompany.httpserver;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Chunked transfer coding (RFC 9112, section 7.1) for bodies whose length
+ * is not known up front. Every write becomes one chunk; {@link #finish()}
+ * writes the last chunk and leaves the underlying stream open.
+ */
+final class ChunkedOutputStream extends FilterOutputStream {
+
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] size = new byte[10];
+
+    ChunkedOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            // an empty chunk would end the body
+            return;
+        }
+        int pos = size.length - 2;
+        size[pos] = '\r';
+        size[pos + 1] = '\n';
+        int rest = len;
+        do {
+            size[--pos] = HEX[rest & 0xf];
+            rest >>>= 4;
+        } while (rest > 0);
+        out.write(size, pos, size.length - pos);
+        out.write(b, off, len);
+        out.write(HttpHeader.CRLF);
+    }
+
+    void finish() throws IOException {
+        out.write(LAST_CHUNK);
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        flush();
+    }
+}
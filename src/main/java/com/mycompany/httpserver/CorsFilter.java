@@ -0,0 +1,34 @@
+package com.mycompany.httpserver;
+
+/**
+ * Adds Access-Control-Allow-Origin to every response and answers CORS
+ * preflight (OPTIONS) requests itself with 204 and the allowed methods.
+ */
+public class CorsFilter implements Filter {
+
+    private final HttpHeader allowOrigin;
+    private final HttpHeader allowMethods;
+    private final HttpHeader allowHeaders;
+
+    public CorsFilter(String origin) {
+        this(origin, "GET, POST, OPTIONS", "Content-Type, Authorization");
+    }
+
+    public CorsFilter(String origin, String methods, String headers) {
+        this.allowOrigin = HttpHeader.of("Access-Control-Allow-Origin", origin);
+        this.allowMethods = HttpHeader.of("Access-Control-Allow-Methods", methods);
+        this.allowHeaders = HttpHeader.of("Access-Control-Allow-Headers", headers);
+    }
+
+    @Override
+    public void doFilter(HttpRequest req, HttpResponse res, FilterChain chain) {
+        res.addHeader(allowOrigin);
+        if ("OPTIONS".equals(req.getMethod()) && req.getHeader("access-control-request-method") != null) {
+            res.setStatus(HttpStatus.NO_CONTENT);
+            res.addHeader(allowMethods);
+            res.addHeader(allowHeaders);
+            return;
+        }
+        chain.next(req, res);
+    }
+}
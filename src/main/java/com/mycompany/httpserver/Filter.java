@@ -0,0 +1,11 @@
+package com.mycompany.httpserver;
+
+/**
+ * Wraps request handling: runs before the handler, calls
+ * {@link FilterChain#next} to continue (or not, to answer by itself), and
+ * can adjust the response afterwards. Register filters with
+ * {@link HttpServer#filter(Filter)} before starting the server.
+ */
+public interface Filter {
+    void doFilter(HttpRequest req, HttpResponse res, FilterChain chain);
+}
@@ -0,0 +1,40 @@
+package com.mycompany.httpserver;
+
+/**
+ * Walks the registered filters in order and ends in the router. A chain is
+ * reused for every request of an HTTP/1.1 connection, so running it does
+ * not allocate.
+ */
+public final class FilterChain {
+
+    private final Filter[] filters;
+    private int position;
+
+    FilterChain(Filter[] filters) {
+        this.filters = filters;
+    }
+
+    public void next(HttpRequest req, HttpResponse res) {
+        if (position < filters.length) {
+            filters[position++].doFilter(req, res, this);
+        } else {
+            position++;
+            HttpServer.route(req, res);
+        }
+    }
+
+    void run(HttpRequest req, HttpResponse res) {
+        ServerEvents.Route event = new ServerEvents.Route();
+        event.begin();
+        position = 0;
+        next(req, res);
+        event.end();
+        if (event.shouldCommit()) {
+            event.route = req.requestUri.getPath();
+            event.status = res.statusCode;
+            event.traceId = ServerEvents.traceId(req);
+            event.spanId = ServerEvents.spanId(req);
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.mycompany.httpserver;
+
+/**
+ * Adds a fixed set of headers (security headers, Cache-Control, Server...)
+ * to every response.
+ */
+public class HeadersFilter implements Filter {
+
+    private final HttpHeader[] headers;
+
+    public HeadersFilter(HttpHeader... headers) {
+        this.headers = headers.clone();
+    }
+
+    @Override
+    public void doFilter(HttpRequest req, HttpResponse res, FilterChain chain) {
+        for (HttpHeader header : headers) {
+            res.addHeader(header);
+        }
+        chain.next(req, res);
+    }
+}
@@ -0,0 +1,362 @@
+package com.mycompany.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * HPACK header compression (RFC 7541): static table, dynamic table, prefixed
+ * integers and Huffman coded strings. A connection owns one {@link Decoder}
+ * for the client's header blocks and one {@link Encoder} for its own.
+ */
+final class Hpack {
+
+    record Header(String name, String value) {
+
+        int size() {
+            return name.length() + value.length() + 32;
+        }
+    }
+
+    static final int DEFAULT_TABLE_SIZE = 4096;
+
+    private static final Header[] STATIC_TABLE = {
+        null,
+        new Header(":authority", ""),
+        new Header(":method", "GET"),
+        new Header(":method", "POST"),
+        new Header(":path", "/"),
+        new Header(":path", "/index.html"),
+        new Header(":scheme", "http"),
+        new Header(":scheme", "https"),
+        new Header(":status", "200"),
+        new Header(":status", "204"),
+        new Header(":status", "206"),
+        new Header(":status", "304"),
+        new Header(":status", "400"),
+        new Header(":status", "404"),
+        new Header(":status", "500"),
+        new Header("accept-charset", ""),
+        new Header("accept-encoding", "gzip, deflate"),
+        new Header("accept-language", ""),
+        new Header("accept-ranges", ""),
+        new Header("accept", ""),
+        new Header("access-control-allow-origin", ""),
+        new Header("age", ""),
+        new Header("allow", ""),
+        new Header("authorization", ""),
+        new Header("cache-control", ""),
+        new Header("content-disposition", ""),
+        new Header("content-encoding", ""),
+        new Header("content-language", ""),
+        new Header("content-length", ""),
+        new Header("content-location", ""),
+        new Header("content-range", ""),
+        new Header("content-type", ""),
+        new Header("cookie", ""),
+        new Header("date", ""),
+        new Header("etag", ""),
+        new Header("expect", ""),
+        new Header("expires", ""),
+        new Header("from", ""),
+        new Header("host", ""),
+        new Header("if-match", ""),
+        new Header("if-modified-since", ""),
+        new Header("if-none-match", ""),
+        new Header("if-range", ""),
+        new Header("if-unmodified-since", ""),
+        new Header("last-modified", ""),
+        new Header("link", ""),
+        new Header("location", ""),
+        new Header("max-forwards", ""),
+        new Header("proxy-authenticate", ""),
+        new Header("proxy-authorization", ""),
+        new Header("range", ""),
+        new Header("referer", ""),
+        new Header("refresh", ""),
+        new Header("retry-after", ""),
+        new Header("server", ""),
+        new Header("set-cookie", ""),
+        new Header("strict-transport-security", ""),
+        new Header("transfer-encoding", ""),
+        new Header("user-agent", ""),
+        new Header("vary", ""),
+        new Header("via", ""),
+        new Header("www-authenticate", "")
+    };
+
+    private static final int STATIC_LENGTH = STATIC_TABLE.length - 1;
+    private static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+    private static final Map<Header, Integer> STATIC_FIELDS = new HashMap<>();
+
+    static {
+        for (int i = STATIC_LENGTH; i >= 1; i--) {
+            STATIC_NAMES.put(STATIC_TABLE[i].name(), i);
+            STATIC_FIELDS.put(STATIC_TABLE[i], i);
+        }
+    }
+
+    private Hpack() {
+    }
+
+    /** Entries are numbered from 1, newest first; index 1 follows the static table. */
+    private static final class DynamicTable {
+
+        private Header[] entries = new Header[16];
+        private int head;
+        private int count;
+        private int size;
+        private int maxSize = DEFAULT_TABLE_SIZE;
+
+        int length() {
+            return count;
+        }
+
+        Header get(int index) {
+            return entries[(head + index - 1) % entries.length];
+        }
+
+        void add(Header header) {
+            if (header.size() > maxSize) {
+                clear();
+                return;
+            }
+            while (size + header.size() > maxSize) {
+                evict();
+            }
+            if (count == entries.length) {
+                Header[] grown = new Header[entries.length * 2];
+                for (int i = 0; i < count; i++) {
+                    grown[i] = get(i + 1);
+                }
+                entries = grown;
+                head = 0;
+            }
+            head = (head - 1 + entries.length) % entries.length;
+            entries[head] = header;
+            count++;
+            size += header.size();
+        }
+
+        void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            while (size > maxSize) {
+                evict();
+            }
+        }
+
+        private void evict() {
+            int last = (head + count - 1) % entries.length;
+            size -= entries[last].size();
+            entries[last] = null;
+            count--;
+        }
+
+        private void clear() {
+            while (count > 0) {
+                evict();
+            }
+        }
+    }
+
+    static final class Decoder {
+
+        private final DynamicTable table = new DynamicTable();
+        private final int maxTableSize;
+        private final int maxHeaderListSize;
+
+        Decoder(int maxTableSize, int maxHeaderListSize) {
+            this.maxTableSize = maxTableSize;
+            this.maxHeaderListSize = maxHeaderListSize;
+            table.setMaxSize(maxTableSize);
+        }
+
+        List<Header> decode(byte[] block) throws HpackException {
+            List<Header> headers = new ArrayList<>();
+            int[] pos = {0};
+            int listSize = 0;
+            boolean fieldSeen = false;
+            while (pos[0] < block.length) {
+                int b = block[pos[0]] & 0xff;
+                Header header;
+                if ((b & 0x80) != 0) {
+                    header = lookup(readInt(block, pos, 7));
+                } else if ((b & 0x40) != 0) {
+                    header = readLiteral(block, pos, 6);
+                    table.add(header);
+                } else if ((b & 0x20) != 0) {
+                    if (fieldSeen) {
+                        throw new HpackException("Table size update after a header field");
+                    }
+                    int size = readInt(block, pos, 5);
+                    if (size > maxTableSize) {
+                        throw new HpackException("Table size update above the advertised limit: " + size);
+                    }
+                    table.setMaxSize(size);
+                    continue;
+                } else {
+                    header = readLiteral(block, pos, 4);
+                }
+                fieldSeen = true;
+                listSize += header.size();
+                if (listSize > maxHeaderListSize) {
+                    throw new HpackException("Header list too large");
+                }
+                headers.add(header);
+            }
+            return headers;
+        }
+
+        private Header lookup(int index) throws HpackException {
+            if (index <= 0 || index > STATIC_LENGTH + table.length()) {
+                throw new HpackException("Invalid header index: " + index);
+            }
+            return index <= STATIC_LENGTH ? STATIC_TABLE[index] : table.get(index - STATIC_LENGTH);
+        }
+
+        private Header readLiteral(byte[] block, int[] pos, int prefix) throws HpackException {
+            int index = readInt(block, pos, prefix);
+            String name = index == 0 ? readString(block, pos) : lookup(index).name();
+            return new Header(name, readString(block, pos));
+        }
+
+        private static String readString(byte[] block, int[] pos) throws HpackException {
+            if (pos[0] >= block.length) {
+                throw new HpackException("Truncated header block");
+            }
+            boolean huffman = (block[pos[0]] & 0x80) != 0;
+            int length = readInt(block, pos, 7);
+            if (length > block.length - pos[0]) {
+                throw new HpackException("String longer than header block");
+            }
+            byte[] value = huffman
+                    ? Huffman.decode(block, pos[0], length)
+                    : Arrays.copyOfRange(block, pos[0], pos[0] + length);
+            pos[0] += length;
+            return new String(value, StandardCharsets.ISO_8859_1);
+        }
+
+        private static int readInt(byte[] block, int[] pos, int prefix) throws HpackException {
+            int max = (1 << prefix) - 1;
+            int value = block[pos[0]++] & max;
+            if (value < max) {
+                return value;
+            }
+            int shift = 0;
+            while (true) {
+                if (pos[0] >= block.length) {
+                    throw new HpackException("Truncated integer");
+                }
+                int b = block[pos[0]++] & 0xff;
+                if (shift > 21) {
+                    throw new HpackException("Integer overflow");
+                }
+                value += (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+                shift += 7;
+            }
+        }
+    }
+
+    static final class Encoder {
+
+        /** Values that change on every response and would only churn the table. */
+        private static final Set<String> NOT_INDEXED = Set.of("content-length", "date", "etag", "last-modified");
+        private static final Set<String> SENSITIVE = Set.of("authorization", "cookie", "set-cookie",
+                "proxy-authorization");
+
+        private final DynamicTable table = new DynamicTable();
+        private int pendingSizeUpdate = -1;
+
+        /** Called when the peer's SETTINGS_HEADER_TABLE_SIZE changes. */
+        void setMaxTableSize(int size) {
+            int limited = Math.min(size, DEFAULT_TABLE_SIZE);
+            table.setMaxSize(limited);
+            pendingSizeUpdate = limited;
+        }
+
+        byte[] encode(List<Header> headers) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+            if (pendingSizeUpdate >= 0) {
+                writeInt(out, 0x20, 5, pendingSizeUpdate);
+                pendingSizeUpdate = -1;
+            }
+            for (Header header : headers) {
+                encode(header, out);
+            }
+            return out.toByteArray();
+        }
+
+        private void encode(Header header, ByteArrayOutputStream out) {
+            Integer index = STATIC_FIELDS.get(header);
+            if (index == null) {
+                index = findDynamic(header, true);
+            }
+            if (index != null) {
+                writeInt(out, 0x80, 7, index);
+                return;
+            }
+            Integer nameIndex = STATIC_NAMES.get(header.name());
+            if (nameIndex == null) {
+                nameIndex = findDynamic(header, false);
+            }
+            int name = nameIndex == null ? 0 : nameIndex;
+            if (SENSITIVE.contains(header.name())) {
+                writeInt(out, 0x10, 4, name);
+            } else if (NOT_INDEXED.contains(header.name())) {
+                writeInt(out, 0x00, 4, name);
+            } else {
+                writeInt(out, 0x40, 6, name);
+                table.add(header);
+            }
+            if (name == 0) {
+                writeString(out, header.name());
+            }
+            writeString(out, header.value());
+        }
+
+        private Integer findDynamic(Header header, boolean matchValue) {
+            for (int i = 1; i <= table.length(); i++) {
+                Header entry = table.get(i);
+                if (entry.name().equals(header.name()) && (!matchValue || entry.value().equals(header.value()))) {
+                    return STATIC_LENGTH + i;
+                }
+            }
+            return null;
+        }
+
+        private static void writeString(ByteArrayOutputStream out, String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+            int huffmanLength = Huffman.encodedLength(bytes);
+            if (huffmanLength < bytes.length) {
+                writeInt(out, 0x80, 7, huffmanLength);
+                Huffman.encode(bytes, out);
+            } else {
+                writeInt(out, 0x00, 7, bytes.length);
+                out.write(bytes, 0, bytes.length);
+            }
+        }
+
+        static void writeInt(ByteArrayOutputStream out, int flags, int prefix, int value) {
+            int max = (1 << prefix) - 1;
+            if (value < max) {
+                out.write(flags | value);
+                return;
+            }
+            out.write(flags | max);
+            value -= max;
+            while (value >= 0x80) {
+                out.write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.mycompany.httpserver;
+
+/**
+ * Malformed HPACK header block; the HTTP/2 connection answers it with a
+ * COMPRESSION_ERROR.
+ */
+class HpackException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    HpackException(String message) {
+        super(message);
+    }
+}
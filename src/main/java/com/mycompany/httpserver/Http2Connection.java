@@ -0,0 +1,1058 @@
+package com.mycompany.httpserver;
+
+import com.mycompany.httpserver.ServerMetrics.TimeoutKind;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * HTTP/2 over cleartext (h2c) on an accepted socket, entered either with the
+ * connection preface (prior knowledge) or through {@code Upgrade: h2c}.
+ *
+ * The calling connection thread reads frames. Every request stream runs its
+ * handler on its own virtual thread, so requests on one connection are served
+ * concurrently. A single writer thread owns the socket output and the HPACK
+ * encoder: control frames go first, then it picks the next stream to send by
+ * the RFC 7540 priority tree (a stream waits while an ancestor has data to
+ * send; siblings share the connection by weight) within the flow control
+ * windows granted by the client.
+ */
+class Http2Connection {
+
+    static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int PRIORITY = 0x2;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PUSH_PROMISE = 0x5;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+
+    private static final int FLAG_END_STREAM = 0x1;
+    private static final int FLAG_ACK = 0x1;
+    private static final int FLAG_END_HEADERS = 0x4;
+    private static final int FLAG_PADDED = 0x8;
+    private static final int FLAG_PRIORITY = 0x20;
+
+    static final int NO_ERROR = 0x0;
+    static final int PROTOCOL_ERROR = 0x1;
+    static final int INTERNAL_ERROR = 0x2;
+    static final int FLOW_CONTROL_ERROR = 0x3;
+    static final int STREAM_CLOSED = 0x5;
+    static final int FRAME_SIZE_ERROR = 0x6;
+    static final int REFUSED_STREAM = 0x7;
+    static final int COMPRESSION_ERROR = 0x9;
+    static final int ENHANCE_YOUR_CALM = 0xb;
+
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    private static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    private static final int DEFAULT_WINDOW = 65535;
+    private static final int MAX_WINDOW = Integer.MAX_VALUE;
+    private static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+    private static final int MAX_CONCURRENT_STREAMS = 100;
+    private static final int MAX_HEADER_LIST_SIZE = 16384;
+    private static final byte[] EMPTY = new byte[0];
+    /** Largest streaming response body buffered for a stream. */
+    private static final int MAX_BODY_SIZE = 8 * 1024 * 1024;
+    private static final int MAX_PRIORITY_ENTRIES = 1000;
+    private static final int DEFAULT_WEIGHT = 16;
+
+    /** Hop-by-hop headers that must not appear in an HTTP/2 message. */
+    private static final Set<String> CONNECTION_HEADERS = Set.of("connection", "keep-alive", "proxy-connection",
+            "transfer-encoding", "upgrade", "http2-settings");
+
+    private final HttpConnection connection;
+    private final ServerConfig config;
+    private final InputStream in;
+    private final OutputStream out;
+    private final Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE, MAX_HEADER_LIST_SIZE);
+    private final Hpack.Encoder encoder = new Hpack.Encoder();
+    private final ExecutorService handlers = Executors.newVirtualThreadPerTaskExecutor();
+
+    // guarded by this
+    private final Map<Integer, Stream> streams = new HashMap<>();
+    private final Map<Integer, Priority> priorities = new HashMap<>();
+    private final ArrayDeque<byte[]> control = new ArrayDeque<>();
+    private int connectionSendWindow = DEFAULT_WINDOW;
+    private int peerInitialWindow = DEFAULT_WINDOW;
+    private int peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    private long virtualTime;
+    /** Handlers still running for streams already closed, e.g. reset by the client. */
+    private int detachedHandlers;
+    private boolean outputClosed;
+    /** The client can no longer send frames, WINDOW_UPDATE included. */
+    private boolean inputClosed;
+    /**
+     * Request body bytes held by streams not yet dispatched. Windows are
+     * refunded as DATA arrives, so this, not flow control, bounds the
+     * memory one connection can take.
+     */
+    private long bufferedBodies;
+
+    // only touched by the reading thread
+    private int connectionRecvWindow = DEFAULT_WINDOW;
+    private int lastStreamId;
+    private boolean goAwayReceived;
+    private int continuationStream;
+    private ByteArrayOutputStream headerBlock;
+    private boolean headerBlockEndStream;
+
+    Http2Connection(HttpConnection connection, ServerConfig config, InputStream in, OutputStream out) {
+        this.connection = connection;
+        this.config = config;
+        this.in = in;
+        this.out = out;
+    }
+
+    /** True for an HTTP/1.1 request asking to switch to h2c with valid settings. */
+    static boolean isUpgrade(HttpRequest request) {
+        String upgrade = request.getHeader("upgrade");
+        String connectionHeader = request.getHeader("connection");
+        return "HTTP/1.1".equals(request.version)
+                && upgrade != null && Arrays.stream(upgrade.split(",")).anyMatch(u -> u.trim().equalsIgnoreCase("h2c"))
+                && connectionHeader != null && connectionHeader.toLowerCase().contains("http2-settings")
+                && decodeSettingsHeader(request.getHeader("http2-settings")) != null;
+    }
+
+    private static byte[] decodeSettingsHeader(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            byte[] settings = Base64.getUrlDecoder().decode(value.trim());
+            return settings.length % 6 == 0 ? settings : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Continues after the preface was read by the HTTP/1.1 parser.
+     */
+    void serve() throws IOException {
+        run(null);
+    }
+
+    /**
+     * Continues after {@code 101 Switching Protocols}: the upgraded request
+     * becomes stream 1 and the client preface is still to be read.
+     */
+    void serveUpgrade(HttpRequest request) throws IOException {
+        run(request);
+    }
+
+    private void run(HttpRequest upgraded) throws IOException {
+        Thread writer = Thread.ofVirtual().name("h2-writer").start(this::writeLoop);
+        int errorCode = NO_ERROR;
+        try {
+            sendSettings();
+            if (upgraded != null) {
+                applySettings(decodeSettingsHeader(upgraded.getHeader("http2-settings")));
+                Stream stream = openStream(1);
+                lastStreamId = 1;
+                stream.remoteClosed = true;
+                stream.method = upgraded.method;
+                stream.requestUri = upgraded.requestUri;
+                stream.requestHeaders = upgraded.headers;
+                stream.body.writeBytes(upgraded.body);
+                synchronized (this) {
+                    bufferedBodies += upgraded.body.length;
+                }
+                dispatch(stream);
+                byte[] preface = in.readNBytes(PREFACE.length);
+                if (!Arrays.equals(preface, PREFACE)) {
+                    throw new Http2Exception(PROTOCOL_ERROR, 0, "Invalid connection preface");
+                }
+            }
+            readLoop();
+        } catch (Http2Exception e) {
+            errorCode = e.code;
+            System.err.println("HTTP/2 connection error " + e.code + ": " + e.getMessage());
+        } catch (EOFException e) {
+            // client went away between frames
+        } finally {
+            synchronized (this) {
+                inputClosed = true;
+            }
+            goAway(errorCode);
+            handlers.shutdown();
+            try {
+                // the writer stops once nothing can progress; writes stay under their deadline
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void readLoop() throws IOException {
+        byte[] header = new byte[9];
+        boolean first = true;
+        while (true) {
+            if (goAwayReceived && activeStreams() == 0) {
+                return;
+            }
+            TimingWheel.Timeout idle = activeStreams() == 0
+                    ? connection.guard(TimeoutKind.KEEP_ALIVE_IDLE, config.keepAliveTimeoutMillis)
+                    : null;
+            int read;
+            try {
+                read = in.readNBytes(header, 0, 9);
+            } finally {
+                if (idle != null) {
+                    idle.cancel();
+                }
+            }
+            if (read == 0) {
+                return;
+            }
+            if (read < 9) {
+                throw new EOFException();
+            }
+            int length = ((header[0] & 0xff) << 16) | ((header[1] & 0xff) << 8) | (header[2] & 0xff);
+            int type = header[3] & 0xff;
+            int flags = header[4] & 0xff;
+            int streamId = readInt31(header, 5);
+            if (length > DEFAULT_MAX_FRAME_SIZE) {
+                throw new Http2Exception(FRAME_SIZE_ERROR, 0, "Frame of " + length + " bytes");
+            }
+            TimingWheel.Timeout deadline = connection.guard(TimeoutKind.HEADER_READ, config.headerReadTimeoutMillis);
+            byte[] payload;
+            try {
+                payload = in.readNBytes(length);
+            } finally {
+                deadline.cancel();
+            }
+            if (payload.length < length) {
+                throw new EOFException();
+            }
+            if (first && type != SETTINGS) {
+                throw new Http2Exception(PROTOCOL_ERROR, 0, "First frame must be SETTINGS");
+            }
+            first = false;
+            if (continuationStream != 0 && (type != CONTINUATION || streamId != continuationStream)) {
+                throw new Http2Exception(PROTOCOL_ERROR, 0, "Expected CONTINUATION");
+            }
+            try {
+                onFrame(type, flags, streamId, payload);
+            } catch (Http2Exception e) {
+                if (e.streamId == 0) {
+                    throw e;
+                }
+                resetStream(e.streamId, e.code);
+            }
+        }
+    }
+
+    private void onFrame(int type, int flags, int streamId, byte[] payload) throws IOException {
+        switch (type) {
+            case DATA -> onData(flags, streamId, payload);
+            case HEADERS -> onHeaders(flags, streamId, payload);
+            case PRIORITY -> onPriority(streamId, payload);
+            case RST_STREAM -> onRstStream(streamId, payload);
+            case SETTINGS -> onSettings(flags, streamId, payload);
+            case PUSH_PROMISE -> throw new Http2Exception(PROTOCOL_ERROR, 0, "PUSH_PROMISE from client");
+            case PING -> onPing(flags, streamId, payload);
+            case GOAWAY -> onGoAway(streamId);
+            case WINDOW_UPDATE -> onWindowUpdate(streamId, payload);
+            case CONTINUATION -> onContinuation(flags, streamId, payload);
+            default -> {
+                // unknown frame types are ignored
+            }
+        }
+    }
+
+    private void onData(int flags, int streamId, byte[] payload) throws IOException {
+        if (streamId == 0) {
+            throw new Http2Exception(PROTOCOL_ERROR, 0, "DATA on stream 0");
+        }
+        connectionRecvWindow -= payload.length;
+        if (connectionRecvWindow < 0) {
+            throw new Http2Exception(FLOW_CONTROL_ERROR, 0, "Connection window exceeded");
+        }
+        if (payload.length > 0) {
+            connectionRecvWindow += payload.length;
+            sendWindowUpdate(0, payload.length);
+        }
+        if (streamId > lastStreamId) {
+            throw new Http2Exception(PROTOCOL_ERROR, 0, "DATA on idle stream " + streamId);
+        }
+        Stream stream;
+        synchronized (this) {
+            stream = streams.get(streamId);
+        }
+        if (stream == null || stream.remoteClosed) {
+            throw new Http2Exception(STREAM_CLOSED, streamId, "DATA on closed stream");
+        }
+        stream.recvWindow -= payload.length;
+        if (stream.recvWindow < 0) {
+            throw new Http2Exception(FLOW_CONTROL_ERROR, streamId, "Stream window exceeded");
+        }
+        int[] range = unpad(flags, payload, streamId);
+        if (stream.body.size() + range[1] > config.maxBodySize) {
+            throw new Http2Exception(ENHANCE_YOUR_CALM, streamId, "Request body too large");
+        }
+        synchronized (this) {
+            // room for one body at the size limit and as much again across the other streams
+            if (bufferedBodies + range[1] > 2L * config.maxBodySize) {
+                throw new Http2Exception(ENHANCE_YOUR_CALM, streamId, "Too much request body buffered");
+            }
+            bufferedBodies += range[1];
+        }
+        stream.body.write(payload, range[0], range[1]);
+        if ((flags & FLAG_END_STREAM) != 0) {
+            stream.remoteClosed = true;
+            dispatch(stream);
+        } else if (payload.length > 0) {
+            stream.recvWindow += payload.length;
+            sendWindowUpdate(streamId, payload.length);
+        }
+    }
+
+    private void onHeaders(int flags, int streamId, byte[] payload) throws IOException {
+        if (streamId == 0 || (streamId & 1) == 0) {
+            throw new Http2Exception(PROTOCOL_ERROR, 0, "HEADERS on invalid stream " + streamId);
+        }
+        int[] range = unpad(flags, payload, 0);
+        int offset = range[0];
+        int length = range[1];
+        if ((flags & FLAG_PRIORITY) != 0) {
+            if (length < 5) {
+                throw new Http2Exception(FRAME_SIZE_ERROR, 0, "HEADERS priority too short");
+            }
+            setPriority(streamId, payload, offset);
+            offset += 5;
+            length -= 5;
+        }
+        headerBlock = new ByteArrayOutputStream(length);
+        headerBlock.write(payload, offset, length);
+        headerBlockEndStream = (flags & FLAG_END_STREAM) != 0;
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            onHeaderBlock(streamId);
+        } else {
+            continuationStream = streamId;
+        }
+    }
+
+    private void onContinuation(int flags, int streamId, byte[] payload) throws IOException {
+        if (continuationStream == 0 || streamId != continuationStream) {
+            throw new Http2Exception(PROTOCOL_ERROR, 0, "Unexpected CONTINUATION");
+        }
+        if (headerBlock.size() + payload.length > MAX_HEADER_LIST_SIZE * 2) {
+            throw new Http2Exception(ENHANCE_YOUR_CALM, 0, "Header block too large");
+        }
+        headerBlock.write(payload, 0, payload.length);
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            continuationStream = 0;
+            onHeaderBlock(streamId);
+        }
+    }
+
+    private void onHeaderBlock(int streamId) throws IOException {
+        List<Hpack.Header> headers;
+        synchronized (this) {
+            // decoded in arrival order so the dynamic table stays in sync
+            try {
+                headers = decoder.decode(headerBlock.toByteArray());
+            } catch (HpackException e) {
+                throw new Http2Exception(COMPRESSION_ERROR, 0, e.getMessage());
+            }
+        }
+        headerBlock = null;
+
+        Stream existing;
+        synchronized (this) {
+            existing = streams.get(streamId);
+        }
+        if (streamId <= lastStreamId) {
+            if (existing == null || existing.remoteClosed) {
+                throw new Http2Exception(STREAM_CLOSED, 0, "HEADERS on closed stream " + streamId);
+            }
+            // trailers: only allowed to end the stream, and ignored
+            if (!headerBlockEndStream) {
+                throw new Http2Exception(PROTOCOL_ERROR, streamId, "Trailers without END_STREAM");
+            }
+            existing.remoteClosed = true;
+            dispatch(existing);
+            return;
+        }
+        lastStreamId = streamId;
+        if (goAwayReceived || activeStreams() >= MAX_CONCURRENT_STREAMS) {
+            throw new Http2Exception(REFUSED_STREAM, streamId, "Too many concurrent streams");
+        }
+
+        Stream stream = openStream(streamId);
+        Map<String, String> requestHeaders = new HashMap<>();
+        String path = null;
+        String authority = null;
+        boolean regularSeen = false;
+        for (Hpack.Header header : headers) {
+            String name = header.name();
+            if (!name.equals(name.toLowerCase())) {
+                throw new Http2Exception(PROTOCOL_ERROR, streamId, "Uppercase header name");
+            }
+            if (!validField(name, header.value())) {
+                throw new Http2Exception(PROTOCOL_ERROR, streamId, "Malformed header " + name);
+            }
+            if (name.startsWith(":")) {
+                if (regularSeen) {
+                    throw new Http2Exception(PROTOCOL_ERROR, streamId, "Pseudo header after regular header");
+                }
+                switch (name) {
+                    case ":method" -> stream.method = header.value();
+                    case ":path" -> path = header.value();
+                    case ":authority" -> authority = header.value();
+                    case ":scheme" -> {
+                        // only cleartext is served here
+                    }
+                    default -> throw new Http2Exception(PROTOCOL_ERROR, streamId, "Unknown pseudo header " + name);
+                }
+            } else {
+                regularSeen = true;
+                if (CONNECTION_HEADERS.contains(name)) {
+                    throw new Http2Exception(PROTOCOL_ERROR, streamId, "Connection header " + name);
+                }
+                requestHeaders.merge(name, header.value(), (a, b) -> name.equals("cookie") ? a + "; " + b : a + ", " + b);
+            }
+        }
+        if (stream.method == null || path == null || path.isEmpty()) {
+            throw new Http2Exception(PROTOCOL_ERROR, streamId, "Missing pseudo header");
+        }
+        if (!HttpHeader.isToken(stream.method)) {
+            throw new Http2Exception(PROTOCOL_ERROR, streamId, "Invalid :method");
+        }
+        if (authority != null && !requestHeaders.containsKey("host")) {
+            requestHeaders.put("host", authority);
+        }
+        try {
+            stream.requestUri = new URI(path);
+        } catch (URISyntaxException e) {
+            throw new Http2Exception(PROTOCOL_ERROR, streamId, "Invalid :path");
+        }
+        stream.requestHeaders = requestHeaders;
+        if (headerBlockEndStream) {
+            stream.remoteClosed = true;
+            dispatch(stream);
+        }
+    }
+
+    /**
+     * Field rules of RFC 9113 section 8.2.1: the name is a token (after the
+     * colon of a pseudo header) and the value has no CR, LF or NUL and no
+     * surrounding whitespace. Such bytes would otherwise reach services and
+     * the HTTP/1.1 requests the proxy sends upstream.
+     */
+    private static boolean validField(String name, String value) {
+        String token = name.startsWith(":") ? name.substring(1) : name;
+        if (!HttpHeader.isToken(token) || !HttpHeader.isFieldValue(value)) {
+            return false;
+        }
+        return value.isEmpty() || !isWhitespace(value.charAt(0)) && !isWhitespace(value.charAt(value.length() - 1));
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t';
+    }
+
+    private void onPriority(int streamId, byte[] payload) throws Http2Exception {
+        if (streamId == 0) {
+            throw new Http2Exception(PROTOCOL_ERROR, 0, "PRIORITY on stream 0");
+        }
+        if (payload.length != 5) {
+            throw new Http2Exception(FRAME_SIZE_ERROR, streamId, "PRIORITY of " + payload.length + " bytes");
+        }
+        setPriority(streamId, payload, 0);
+    }
+
+    private void onRstStream(int streamId, byte[] payload) throws Http2Exception {
+        if (streamId == 0 || streamId > lastStreamId) {
+            throw new Http2Exception(PROTOCOL_ERROR, 0, "RST_STREAM on idle stream " + streamId);
+        }
+        if (payload.length != 4) {
+            throw new Http2Exception(FRAME_SIZE_ERROR, 0, "RST_STREAM of " + payload.length + " bytes");
+        }
+        synchronized (this) {
+            closeStream(streamId);
+            notifyAll();
+        }
+    }
+
+    private void onSettings(int flags, int streamId, byte[] payload) throws IOException {
+        if (streamId != 0) {
+            throw new Http2Exception(PROTOCOL_ERROR, 0, "SETTINGS on stream " + streamId);
+        }
+        if ((flags & FLAG_ACK) != 0) {
+            if (payload.length != 0) {
+                throw new Http2Exception(FRAME_SIZE_ERROR, 0, "SETTINGS ACK with payload");
+            }
+            return;
+        }
+        if (payload.length % 6 != 0) {
+            throw new Http2Exception(FRAME_SIZE_ERROR, 0, "SETTINGS of " + payload.length + " bytes");
+        }
+        applySettings(payload);
+        enqueue(frame(SETTINGS, FLAG_ACK, 0, new byte[0]));
+    }
+
+    private void applySettings(byte[] payload) throws Http2Exception {
+        synchronized (this) {
+            for (int i = 0; i < payload.length; i += 6) {
+                int id = ((payload[i] & 0xff) << 8) | (payload[i + 1] & 0xff);
+                long value = readUnsignedInt(payload, i + 2);
+                switch (id) {
+                    case SETTINGS_HEADER_TABLE_SIZE -> encoder.setMaxTableSize((int) Math.min(value, Integer.MAX_VALUE));
+                    case SETTINGS_ENABLE_PUSH -> {
+                        if (value > 1) {
+                            throw new Http2Exception(PROTOCOL_ERROR, 0, "Invalid ENABLE_PUSH");
+                        }
+                    }
+                    case SETTINGS_INITIAL_WINDOW_SIZE -> {
+                        if (value > MAX_WINDOW) {
+                            throw new Http2Exception(FLOW_CONTROL_ERROR, 0, "Invalid INITIAL_WINDOW_SIZE");
+                        }
+                        int delta = (int) value - peerInitialWindow;
+                        peerInitialWindow = (int) value;
+                        for (Stream stream : streams.values()) {
+                            if ((long) stream.sendWindow + delta > MAX_WINDOW) {
+                                throw new Http2Exception(FLOW_CONTROL_ERROR, 0, "Stream window overflow");
+                            }
+                            stream.sendWindow += delta;
+                        }
+                    }
+                    case SETTINGS_MAX_FRAME_SIZE -> {
+                        if (value < DEFAULT_MAX_FRAME_SIZE || value > 0xffffff) {
+                            throw new Http2Exception(PROTOCOL_ERROR, 0, "Invalid MAX_FRAME_SIZE");
+                        }
+                        peerMaxFrameSize = (int) value;
+                    }
+                    default -> {
+                        // MAX_CONCURRENT_STREAMS and MAX_HEADER_LIST_SIZE limit pushes and
+                        // response headers, neither of which this server produces in bulk
+                    }
+                }
+            }
+            notifyAll();
+        }
+    }
+
+    private void onPing(int flags, int streamId, byte[] payload) throws Http2Exception {
+        if (streamId != 0) {
+            throw new Http2Exception(PROTOCOL_ERROR, 0, "PING on stream " + streamId);
+        }
+        if (payload.length != 8) {
+            throw new Http2Exception(FRAME_SIZE_ERROR, 0, "PING of " + payload.length + " bytes");
+        }
+        if ((flags & FLAG_ACK) == 0) {
+            enqueue(frame(PING, FLAG_ACK, 0, payload));
+        }
+    }
+
+    private void onGoAway(int streamId) throws Http2Exception {
+        if (streamId != 0) {
+            throw new Http2Exception(PROTOCOL_ERROR, 0, "GOAWAY on stream " + streamId);
+        }
+        goAwayReceived = true;
+    }
+
+    private void onWindowUpdate(int streamId, byte[] payload) throws Http2Exception {
+        if (payload.length != 4) {
+            throw new Http2Exception(FRAME_SIZE_ERROR, 0, "WINDOW_UPDATE of " + payload.length + " bytes");
+        }
+        int increment = readInt31(payload, 0);
+        if (increment == 0) {
+            throw new Http2Exception(PROTOCOL_ERROR, streamId, "WINDOW_UPDATE of 0");
+        }
+        synchronized (this) {
+            if (streamId == 0) {
+                if ((long) connectionSendWindow + increment > MAX_WINDOW) {
+                    throw new Http2Exception(FLOW_CONTROL_ERROR, 0, "Connection window overflow");
+                }
+                connectionSendWindow += increment;
+            } else {
+                Stream stream = streams.get(streamId);
+                if (stream != null) {
+                    if ((long) stream.sendWindow + increment > MAX_WINDOW) {
+                        throw new Http2Exception(FLOW_CONTROL_ERROR, streamId, "Stream window overflow");
+                    }
+                    stream.sendWindow += increment;
+                }
+            }
+            notifyAll();
+        }
+    }
+
+    /** Returns {offset, length} of the data once the optional padding is removed. */
+    private static int[] unpad(int flags, byte[] payload, int streamId) throws Http2Exception {
+        if ((flags & FLAG_PADDED) == 0) {
+            return new int[]{0, payload.length};
+        }
+        if (payload.length < 1) {
+            throw new Http2Exception(FRAME_SIZE_ERROR, 0, "Padded frame without pad length");
+        }
+        int padding = payload[0] & 0xff;
+        if (padding >= payload.length) {
+            throw new Http2Exception(PROTOCOL_ERROR, 0, "Padding longer than frame");
+        }
+        return new int[]{1, payload.length - 1 - padding};
+    }
+
+    // ---- priority tree ----
+
+    private static final class Priority {
+
+        int parent;
+        int weight = DEFAULT_WEIGHT;
+    }
+
+    private void setPriority(int streamId, byte[] payload, int offset) throws Http2Exception {
+        boolean exclusive = (payload[offset] & 0x80) != 0;
+        int parent = readInt31(payload, offset);
+        int weight = (payload[offset + 4] & 0xff) + 1;
+        if (parent == streamId) {
+            throw new Http2Exception(PROTOCOL_ERROR, streamId, "Stream depends on itself");
+        }
+        synchronized (this) {
+            Priority priority = priorities.get(streamId);
+            if (priority == null) {
+                if (priorities.size() >= MAX_PRIORITY_ENTRIES) {
+                    return;
+                }
+                priority = new Priority();
+                priorities.put(streamId, priority);
+            }
+            // moving a stream under one of its own descendants first lifts that descendant up
+            if (isAncestor(streamId, parent)) {
+                priorities.get(parent).parent = priority.parent;
+            }
+            if (exclusive) {
+                for (Map.Entry<Integer, Priority> entry : priorities.entrySet()) {
+                    if (entry.getValue().parent == parent && entry.getKey() != streamId) {
+                        entry.getValue().parent = streamId;
+                    }
+                }
+            }
+            priority.parent = parent;
+            priority.weight = weight;
+            notifyAll();
+        }
+    }
+
+    private boolean isAncestor(int ancestor, int streamId) {
+        int current = streamId;
+        for (int steps = 0; steps <= priorities.size(); steps++) {
+            Priority priority = priorities.get(current);
+            if (priority == null || priority.parent == 0) {
+                return false;
+            }
+            if (priority.parent == ancestor) {
+                return true;
+            }
+            current = priority.parent;
+        }
+        return false;
+    }
+
+    private boolean blockedByAncestor(Stream stream) {
+        int current = stream.id;
+        for (int steps = 0; steps <= priorities.size(); steps++) {
+            Priority priority = priorities.get(current);
+            if (priority == null || priority.parent == 0) {
+                return false;
+            }
+            Stream parent = streams.get(priority.parent);
+            if (parent != null && parent.hasOutput(connectionSendWindow)) {
+                return true;
+            }
+            current = priority.parent;
+        }
+        return false;
+    }
+
+    private int weightOf(int streamId) {
+        Priority priority = priorities.get(streamId);
+        return priority == null ? DEFAULT_WEIGHT : priority.weight;
+    }
+
+    // ---- streams ----
+
+    private static final class Stream {
+
+        final int id;
+        int sendWindow;
+        int recvWindow = DEFAULT_WINDOW;
+        boolean remoteClosed;
+        boolean dispatched;
+        boolean handling;
+        String method;
+        URI requestUri;
+        Map<String, String> requestHeaders = new HashMap<>();
+        /** Null once the request was dispatched. */
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        List<Hpack.Header> responseHeaders;
+        byte[] responseBody;
+        int bodyOffset;
+        boolean headersSent;
+        long pass;
+
+        Stream(int id, int sendWindow) {
+            this.id = id;
+            this.sendWindow = sendWindow;
+        }
+
+        boolean hasOutput(int connectionWindow) {
+            if (responseHeaders == null) {
+                return false;
+            }
+            if (!headersSent) {
+                return true;
+            }
+            return bodyOffset < responseBody.length && sendWindow > 0 && connectionWindow > 0;
+        }
+    }
+
+    private synchronized Stream openStream(int streamId) {
+        Stream stream = new Stream(streamId, peerInitialWindow);
+        streams.put(streamId, stream);
+        return stream;
+    }
+
+    /**
+     * Open streams plus the handlers still running for closed ones, so that
+     * resetting streams (HEADERS then RST_STREAM) cannot run more than
+     * MAX_CONCURRENT_STREAMS handlers at once.
+     */
+    private synchronized int activeStreams() {
+        return streams.size() + detachedHandlers;
+    }
+
+    private void resetStream(int streamId, int code) {
+        synchronized (this) {
+            closeStream(streamId);
+        }
+        enqueue(frame(RST_STREAM, 0, streamId, intBytes(code)));
+    }
+
+    private void clearStreams() {
+        for (Stream stream : streams.values()) {
+            if (stream.handling) {
+                detachedHandlers++;
+            }
+        }
+        streams.clear();
+        bufferedBodies = 0;
+    }
+
+    /** Removes a finished stream and hands its children to its parent. */
+    private void closeStream(int streamId) {
+        Stream stream = streams.remove(streamId);
+        if (stream != null && stream.handling) {
+            detachedHandlers++;
+        }
+        if (stream != null && stream.body != null) {
+            bufferedBodies -= stream.body.size();
+        }
+        Priority removed = priorities.remove(streamId);
+        int parent = removed == null ? 0 : removed.parent;
+        for (Priority priority : priorities.values()) {
+            if (priority.parent == streamId) {
+                priority.parent = parent;
+            }
+        }
+    }
+
+    private void dispatch(Stream stream) {
+        if (stream.dispatched) {
+            return;
+        }
+        stream.dispatched = true;
+        byte[] body = stream.body.toByteArray();
+        synchronized (this) {
+            stream.handling = true;
+            bufferedBodies -= body.length;
+            stream.body = null;
+        }
+        HttpRequest request = new HttpRequest(stream.method, stream.requestUri, "HTTP/2.0",
+                stream.requestHeaders, body);
+        request.remoteAddress = connection.remoteAddress();
+        if (config.traceContext) {
+            request.traceContext = TraceContext.start(request.getHeader("traceparent"));
+        }
+        handlers.execute(() -> handle(stream, request));
+    }
+
+    private void handle(Stream stream, HttpRequest request) {
+        HttpResponse response = new HttpResponse();
+        boolean head = "HEAD".equals(request.method);
+        byte[] body;
+        try {
+            if (config.logRequests) {
+                System.out.println("Path: " + request.requestUri.getPath() + " (h2 stream " + stream.id + ")");
+            }
+            new FilterChain(HttpServer.filters()).run(request, response);
+            // a longer streaming body fails here and is answered with 500
+            body = head || !response.bodyAllowed() ? EMPTY : response.getBody(MAX_BODY_SIZE);
+        } catch (RuntimeException e) {
+            System.getLogger(Http2Connection.class.getName()).log(System.Logger.Level.ERROR, (String) null, e);
+            response.reset();
+            response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR);
+            body = head ? EMPTY : response.getBody();
+        }
+        // a HEAD answer announces the length of the body it leaves out
+        long contentLength = !response.bodyAllowed() ? -1 : head ? response.bodyLength() : body.length;
+        response.setBody(EMPTY); // closes a streaming body that was not sent
+        ServerMetrics.requestServed();
+
+        List<Hpack.Header> headers = new ArrayList<>(response.headerCount + 3);
+        headers.add(new Hpack.Header(":status", response.codeText()));
+        if (response.contentType != null) {
+            headers.add(new Hpack.Header(response.contentType.lowerName, response.contentType.value));
+        }
+        for (int i = 0; i < response.headerCount; i++) {
+            if (!CONNECTION_HEADERS.contains(response.headers[i].lowerName)) {
+                headers.add(new Hpack.Header(response.headers[i].lowerName, response.headerValue(i)));
+            }
+        }
+        if (contentLength >= 0) {
+            headers.add(new Hpack.Header("content-length", String.valueOf(contentLength)));
+        }
+        synchronized (this) {
+            stream.handling = false;
+            if (streams.get(stream.id) != stream) {
+                detachedHandlers--;
+                return;
+            }
+            stream.responseBody = body;
+            stream.pass = Math.max(stream.pass, virtualTime);
+            stream.responseHeaders = headers;
+            notifyAll();
+        }
+    }
+
+    // ---- output ----
+
+    private void sendSettings() {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        writeSetting(payload, SETTINGS_MAX_CONCURRENT_STREAMS, MAX_CONCURRENT_STREAMS);
+        writeSetting(payload, SETTINGS_INITIAL_WINDOW_SIZE, DEFAULT_WINDOW);
+        writeSetting(payload, SETTINGS_MAX_FRAME_SIZE, DEFAULT_MAX_FRAME_SIZE);
+        writeSetting(payload, SETTINGS_MAX_HEADER_LIST_SIZE, MAX_HEADER_LIST_SIZE);
+        writeSetting(payload, SETTINGS_ENABLE_PUSH, 0);
+        enqueue(frame(SETTINGS, 0, 0, payload.toByteArray()));
+    }
+
+    private static void writeSetting(ByteArrayOutputStream out, int id, int value) {
+        out.write(id >> 8);
+        out.write(id);
+        out.writeBytes(intBytes(value));
+    }
+
+    private void sendWindowUpdate(int streamId, int increment) {
+        enqueue(frame(WINDOW_UPDATE, 0, streamId, intBytes(increment)));
+    }
+
+    private synchronized void enqueue(byte[] frame) {
+        control.add(frame);
+        notifyAll();
+    }
+
+    private void goAway(int errorCode) {
+        byte[] payload = new byte[8];
+        System.arraycopy(intBytes(lastStreamId), 0, payload, 0, 4);
+        System.arraycopy(intBytes(errorCode), 0, payload, 4, 4);
+        synchronized (this) {
+            if (errorCode != NO_ERROR) {
+                clearStreams();
+            }
+            control.add(frame(GOAWAY, 0, 0, payload));
+            outputClosed = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Writer thread: control frames first, then one frame at a time from the
+     * stream chosen by {@link #nextStream()}. Flushes whenever it runs out of
+     * work. After GOAWAY it drains the remaining responses and stops.
+     */
+    private void writeLoop() {
+        try {
+            while (true) {
+                byte[] frame;
+                boolean more;
+                synchronized (this) {
+                    Stream next = null;
+                    while (control.isEmpty() && (next = nextStream()) == null) {
+                        if (outputClosed && !hasPendingWork()) {
+                            out.flush();
+                            return;
+                        }
+                        flushQuietly();
+                        wait();
+                    }
+                    frame = control.isEmpty() ? nextFrame(next) : control.poll();
+                    more = !control.isEmpty() || nextStream() != null;
+                }
+                TimingWheel.Timeout deadline = connection.guard(TimeoutKind.WRITE, config.writeTimeoutMillis);
+                try {
+                    out.write(frame);
+                    if (!more) {
+                        out.flush();
+                    }
+                } finally {
+                    deadline.cancel();
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                outputClosed = true;
+                clearStreams();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A stream still being served by its handler may finish later, and so may
+     * one blocked on flow control while the client can still open its window.
+     */
+    private boolean hasPendingWork() {
+        for (Stream stream : streams.values()) {
+            if (stream.responseHeaders == null
+                    || !inputClosed && stream.bodyOffset < stream.responseBody.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void flushQuietly() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            outputClosed = true;
+        }
+    }
+
+    private Stream nextStream() {
+        Stream best = null;
+        for (Stream stream : streams.values()) {
+            if (!stream.hasOutput(connectionSendWindow) || blockedByAncestor(stream)) {
+                continue;
+            }
+            if (best == null || stream.pass < best.pass || (stream.pass == best.pass && stream.id < best.id)) {
+                best = stream;
+            }
+        }
+        return best;
+    }
+
+    private byte[] nextFrame(Stream stream) {
+        virtualTime = Math.max(virtualTime, stream.pass);
+        byte[] frame;
+        if (!stream.headersSent) {
+            stream.headersSent = true;
+            boolean endStream = stream.responseBody.length == 0;
+            frame = headerFrames(stream.id, encoder.encode(stream.responseHeaders), endStream);
+            if (endStream) {
+                closeStream(stream.id);
+            }
+        } else {
+            int remaining = stream.responseBody.length - stream.bodyOffset;
+            int length = Math.min(Math.min(remaining, peerMaxFrameSize), Math.min(stream.sendWindow, connectionSendWindow));
+            boolean endStream = length == remaining;
+            frame = frame(DATA, endStream ? FLAG_END_STREAM : 0, stream.id,
+                    Arrays.copyOfRange(stream.responseBody, stream.bodyOffset, stream.bodyOffset + length));
+            stream.bodyOffset += length;
+            stream.sendWindow -= length;
+            connectionSendWindow -= length;
+            if (endStream) {
+                closeStream(stream.id);
+            }
+        }
+        stream.pass += (long) frame.length * 256 / weightOf(stream.id);
+        return frame;
+    }
+
+    /** HEADERS followed by as many CONTINUATION frames as the peer's frame size requires. */
+    private byte[] headerFrames(int streamId, byte[] block, boolean endStream) {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream(block.length + 9);
+        int offset = 0;
+        boolean first = true;
+        do {
+            int length = Math.min(peerMaxFrameSize, block.length - offset);
+            boolean last = offset + length == block.length;
+            int flags = (last ? FLAG_END_HEADERS : 0) | (first && endStream ? FLAG_END_STREAM : 0);
+            frames.writeBytes(frame(first ? HEADERS : CONTINUATION, flags, streamId,
+                    Arrays.copyOfRange(block, offset, offset + length)));
+            offset += length;
+            first = false;
+        } while (offset < block.length);
+        return frames.toByteArray();
+    }
+
+    static byte[] frame(int type, int flags, int streamId, byte[] payload) {
+        byte[] frame = new byte[9 + payload.length];
+        frame[0] = (byte) (payload.length >> 16);
+        frame[1] = (byte) (payload.length >> 8);
+        frame[2] = (byte) payload.length;
+        frame[3] = (byte) type;
+        frame[4] = (byte) flags;
+        System.arraycopy(intBytes(streamId & MAX_WINDOW), 0, frame, 5, 4);
+        System.arraycopy(payload, 0, frame, 9, payload.length);
+        return frame;
+    }
+
+    private static byte[] intBytes(int value) {
+        return new byte[]{(byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value};
+    }
+
+    private static int readInt31(byte[] data, int offset) {
+        return (int) (readUnsignedInt(data, offset) & MAX_WINDOW);
+    }
+
+    private static long readUnsignedInt(byte[] data, int offset) {
+        return ((long) (data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
+    /** Connection error when {@code streamId} is 0, otherwise answered with RST_STREAM. */
+    static final class Http2Exception extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        final int code;
+        final int streamId;
+
+        Http2Exception(int code, int streamId, String message) {
+            super(message);
+            this.code = code;
+            this.streamId = streamId;
+        }
+    }
+}
@@ -0,0 +1,505 @@
+package com.mycompany.httpserver;
+
+import com.mycompany.httpserver.ServerMetrics.TimeoutKind;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the requests of one client socket.
+ *
+ * Every blocking phase (waiting for the next request, reading headers,
+ * reading the body, writing the response) is guarded by a deadline on the
+ * shared {@link TimingWheel}. When a deadline fires the socket is closed,
+ * which unblocks the read or write in progress. While reading, a periodic
+ * check also closes clients that send slower than the configured minimum
+ * data rate (slowloris).
+ */
+class HttpConnection implements Runnable {
+
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final int MAX_HEADERS = 100;
+    private static final long RATE_CHECK_INTERVAL_MILLIS = 1000;
+    private static final byte[] UPGRADE_H2C = "Connection: Upgrade\r\nUpgrade: h2c\r\n\r\n"
+            .getBytes(StandardCharsets.US_ASCII);
+
+    private final Socket socket;
+    private final ServerConfig config;
+    private final TimingWheel timers;
+    private final ServerEvents.Accept accepted;
+
+    private CountingInputStream counter;
+    private InputStream in;
+    /** Bytes of the current request taken from {@link #in}, for the Parse event. */
+    private long consumed;
+    private OutputStream rawOut;
+    /** {@link #rawOut} with a write deadline on each write, for streaming bodies. */
+    private OutputStream guardedOut;
+    private HttpResponse response;
+    private FilterChain chain;
+
+    private volatile TimeoutKind expired;
+    private TimingWheel.Timeout rateCheck;
+    private int ratePhase;
+
+    HttpConnection(Socket socket, ServerConfig config, TimingWheel timers, ServerEvents.Accept accepted) {
+        this.socket = socket;
+        this.config = config;
+        this.timers = timers;
+        this.accepted = accepted;
+    }
+
+    @Override
+    public void run() {
+        accepted.end();
+        if (accepted.shouldCommit()) {
+            accepted.remoteAddress = String.valueOf(socket.getRemoteSocketAddress());
+            accepted.commit();
+        }
+        try {
+            socket.setSoTimeout(config.socketTimeoutMillis);
+            counter = new CountingInputStream(socket.getInputStream());
+            in = new BufferedInputStream(counter);
+            rawOut = new BufferedOutputStream(socket.getOutputStream());
+            guardedOut = new GuardedOutputStream(rawOut);
+            response = new HttpResponse();
+            chain = new FilterChain(HttpServer.filters());
+
+            boolean keepAlive = true;
+            boolean firstRequest = true;
+            while (keepAlive) {
+                HttpRequest request = readRequest(firstRequest);
+                if (request == null) {
+                    break;
+                }
+                firstRequest = false;
+                keepAlive = respond(request);
+            }
+        } catch (IOException e) {
+            if (expired != null) {
+                System.err.println("Connection closed by " + expired.name().toLowerCase() + " timeout: "
+                        + socket.getRemoteSocketAddress());
+            }
+        } catch (RuntimeException e) {
+            System.getLogger(HttpConnection.class.getName()).log(System.Logger.Level.ERROR, (String) null, e);
+        } finally {
+            cancelRateCheck();
+            close();
+        }
+    }
+
+    /**
+     * Reads one request. A fresh connection is under the header deadline from
+     * the start; a kept-alive one waits for the first byte under the idle
+     * deadline. The rate check starts once the first byte arrived. Returns
+     * null when the request ended the connection.
+     */
+    private HttpRequest readRequest(boolean firstRequest) throws IOException {
+        TimingWheel.Timeout deadline = firstRequest
+                ? guard(TimeoutKind.HEADER_READ, config.headerReadTimeoutMillis)
+                : guard(TimeoutKind.KEEP_ALIVE_IDLE, config.keepAliveTimeoutMillis);
+        int first = in.read();
+        if (first == -1) {
+            deadline.cancel();
+            return null;
+        }
+        if (!firstRequest) {
+            deadline.cancel();
+            deadline = guard(TimeoutKind.HEADER_READ, config.headerReadTimeoutMillis);
+        }
+        armRateCheck();
+        ServerEvents.Parse parse = new ServerEvents.Parse();
+        parse.begin();
+        consumed = 0;
+
+        String requestLine = readLine(first);
+        while (requestLine != null && requestLine.isEmpty()) {
+            requestLine = readLine(in.read());
+        }
+        if (requestLine == null) {
+            deadline.cancel();
+            return null;
+        }
+        if (config.logRequests) {
+            System.out.println("Received: " + requestLine);
+        }
+
+        if (firstRequest && requestLine.equals("PRI * HTTP/2.0")) {
+            // rest of the HTTP/2 connection preface
+            byte[] rest = in.readNBytes(Http2Connection.PREFACE.length - requestLine.length() - 2);
+            deadline.cancel();
+            cancelRateCheck();
+            if (!Arrays.equals(rest, Arrays.copyOfRange(Http2Connection.PREFACE, requestLine.length() + 2,
+                    Http2Connection.PREFACE.length))) {
+                return null;
+            }
+            return new HttpRequest("PRI", URI.create("*"), "HTTP/2.0", new HashMap<>(), new byte[0]);
+        }
+
+        String[] parts = requestLine.split(" ");
+        URI requestUri;
+        try {
+            if (parts.length != 3 || !HttpHeader.isToken(parts[0])) {
+                throw new URISyntaxException(requestLine, "Malformed request line");
+            }
+            requestUri = new URI(parts[1]);
+        } catch (URISyntaxException e) {
+            deadline.cancel();
+            cancelRateCheck();
+            sendError(HttpStatus.BAD_REQUEST);
+            return null;
+        }
+        if (config.logRequests) {
+            System.out.println("Path: " + requestUri.getPath());
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        int fieldLines = 0;
+        String line;
+        while ((line = readLine(in.read())) != null && !line.isEmpty()) {
+            if (config.logRequests) {
+                System.out.println("Received: " + line);
+            }
+            int colon = line.indexOf(':');
+            String name = colon > 0 ? line.substring(0, colon).toLowerCase() : "";
+            // a CR or NUL inside the line would split it again when forwarded upstream
+            if (colon <= 0 || ++fieldLines > MAX_HEADERS || !HttpHeader.isToken(name)
+                    || !HttpHeader.isFieldValue(line) || name.equals("host") && headers.containsKey("host")) {
+                deadline.cancel();
+                cancelRateCheck();
+                sendError(HttpStatus.BAD_REQUEST);
+                return null;
+            }
+            // repeated fields form one list, as on HTTP/2
+            headers.merge(name, line.substring(colon + 1).trim(),
+                    (a, b) -> name.equals("cookie") ? a + "; " + b : a + ", " + b);
+        }
+        deadline.cancel();
+        if (line == null) {
+            cancelRateCheck();
+            return null;
+        }
+
+        byte[] body = new byte[0];
+        if (headers.containsKey("transfer-encoding")) {
+            cancelRateCheck();
+            sendError(HttpStatus.NOT_IMPLEMENTED);
+            return null;
+        }
+        String contentLength = headers.get("content-length");
+        if (contentLength != null) {
+            long length = parseContentLength(contentLength);
+            if (length < 0) {
+                cancelRateCheck();
+                sendError(HttpStatus.BAD_REQUEST);
+                return null;
+            }
+            if (length > config.maxBodySize) {
+                // refused before reading, so the body is never buffered
+                cancelRateCheck();
+                sendError(HttpStatus.CONTENT_TOO_LARGE);
+                return null;
+            }
+            cancelRateCheck();
+            deadline = guard(TimeoutKind.BODY_READ, config.bodyReadTimeoutMillis);
+            armRateCheck();
+            body = in.readNBytes((int) length);
+            consumed += body.length;
+            deadline.cancel();
+            if (body.length < length) {
+                cancelRateCheck();
+                return null;
+            }
+        }
+        cancelRateCheck();
+        HttpRequest request = new HttpRequest(parts[0], requestUri, parts[2], headers, body);
+        request.remoteAddress = remoteAddress();
+        if (config.traceContext) {
+            request.traceContext = TraceContext.start(request.getHeader("traceparent"));
+        }
+        parse.end();
+        if (parse.shouldCommit()) {
+            parse.method = request.method;
+            parse.route = requestUri.getPath();
+            parse.bytes = consumed;
+            parse.traceId = ServerEvents.traceId(request);
+            parse.spanId = ServerEvents.spanId(request);
+            parse.commit();
+        }
+        return request;
+    }
+
+    /**
+     * Runs the filter chain and writes the response under the write deadline.
+     * Responses carry a Content-Length or are chunked, so the connection is
+     * kept open whenever the client asked for it; only a streamed body of
+     * unknown length to an HTTP/1.0 client ends it.
+     */
+    private boolean respond(HttpRequest request) throws IOException {
+        if ("PRI".equals(request.method) && "HTTP/2.0".equals(request.version)) {
+            new Http2Connection(this, config, in, rawOut).serve();
+            return false;
+        }
+        if (Http2Connection.isUpgrade(request)) {
+            TimingWheel.Timeout deadline = guard(TimeoutKind.WRITE, config.writeTimeoutMillis);
+            rawOut.write(HttpStatus.SWITCHING_PROTOCOLS.statusLine);
+            rawOut.write(UPGRADE_H2C);
+            rawOut.flush();
+            deadline.cancel();
+            new Http2Connection(this, config, in, rawOut).serveUpgrade(request);
+            return false;
+        }
+        boolean keepAlive = request.isKeepAlive();
+        response.reset();
+        response.head = "HEAD".equals(request.method);
+        chain.run(request, response);
+        if (response.stream != null && response.streamLength < 0 && !response.head
+                && !"HTTP/1.1".equals(request.version)) {
+            keepAlive = false;
+        }
+        response.close = !keepAlive;
+        ServerEvents.Write write = new ServerEvents.Write();
+        write.begin();
+        long written;
+        if (response.stream != null) {
+            // a streamed body may take longer than the write timeout in total
+            // (e.g. relayed from a slow upstream); each write gets its own deadline
+            written = response.writeTo(guardedOut);
+            guardedOut.flush();
+        } else {
+            TimingWheel.Timeout deadline = guard(TimeoutKind.WRITE, config.writeTimeoutMillis);
+            try {
+                written = response.writeTo(rawOut);
+                rawOut.flush();
+            } finally {
+                deadline.cancel();
+            }
+        }
+        write.end();
+        if (write.shouldCommit()) {
+            write.route = request.requestUri.getPath();
+            write.status = response.statusCode;
+            write.bytes = written;
+            write.traceId = ServerEvents.traceId(request);
+            write.spanId = ServerEvents.spanId(request);
+            write.commit();
+        }
+        ServerMetrics.requestServed();
+        return keepAlive;
+    }
+
+    /**
+     * Value of a Content-Length header, or -1 when it is malformed or was
+     * repeated with different values (RFC 9112, section 6.3).
+     */
+    private static long parseContentLength(String value) {
+        long length = -1;
+        for (String part : value.split(",", -1)) {
+            String digits = part.trim();
+            if (digits.isEmpty() || digits.length() > 18) {
+                return -1;
+            }
+            for (int i = 0; i < digits.length(); i++) {
+                if (digits.charAt(i) < '0' || digits.charAt(i) > '9') {
+                    return -1;
+                }
+            }
+            long parsed = Long.parseLong(digits);
+            if (length >= 0 && parsed != length) {
+                return -1;
+            }
+            length = parsed;
+        }
+        return length;
+    }
+
+    /** Client IP address, as forwarded to upstream servers. */
+    String remoteAddress() {
+        return socket.getInetAddress().getHostAddress();
+    }
+
+    private void sendError(HttpStatus status) throws IOException {
+        response.reset();
+        response.setStatus(status);
+        response.close = true;
+        TimingWheel.Timeout deadline = guard(TimeoutKind.WRITE, config.writeTimeoutMillis);
+        try {
+            response.writeTo(rawOut);
+            rawOut.flush();
+        } finally {
+            deadline.cancel();
+        }
+    }
+
+    /**
+     * Reads a CRLF (or bare LF) terminated line whose first byte was already
+     * read. Returns null on EOF.
+     */
+    private String readLine(int first) throws IOException {
+        if (first == -1) {
+            return null;
+        }
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b = first;
+        while (b != '\n') {
+            if (b == -1) {
+                return null;
+            }
+            if (line.size() >= MAX_LINE_LENGTH) {
+                throw new IOException("Request line or header too long");
+            }
+            line.write(b);
+            b = in.read();
+        }
+        consumed += line.size() + 1;
+        String value = line.toString(StandardCharsets.ISO_8859_1);
+        return value.endsWith("\r") ? value.substring(0, value.length() - 1) : value;
+    }
+
+    TimingWheel.Timeout guard(TimeoutKind kind, long millis) {
+        return timers.schedule(() -> expire(kind), millis, TimeUnit.MILLISECONDS);
+    }
+
+    private void expire(TimeoutKind kind) {
+        if (expired != null) {
+            return;
+        }
+        expired = kind;
+        ServerMetrics.timeoutExpired(kind);
+        close();
+    }
+
+    private synchronized void armRateCheck() {
+        if (config.minDataRateBytesPerSecond <= 0) {
+            return;
+        }
+        int phase = ++ratePhase;
+        long startBytes = counter.count();
+        long startNanos = System.nanoTime();
+        rateCheck = timers.schedule(() -> checkDataRate(phase, startBytes, startNanos),
+                config.minDataRateGraceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Average rate since the phase started, re-checked every second while the phase lasts. */
+    private synchronized void checkDataRate(int phase, long startBytes, long startNanos) {
+        if (phase != ratePhase) {
+            return;
+        }
+        long bytes = counter.count() - startBytes;
+        long elapsedNanos = System.nanoTime() - startNanos;
+        if (bytes * 1_000_000_000L < config.minDataRateBytesPerSecond * elapsedNanos) {
+            expire(TimeoutKind.MIN_DATA_RATE);
+            return;
+        }
+        rateCheck = timers.schedule(() -> checkDataRate(phase, startBytes, startNanos),
+                RATE_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void cancelRateCheck() {
+        ratePhase++;
+        if (rateCheck != null) {
+            rateCheck.cancel();
+            rateCheck = null;
+        }
+    }
+
+    private void close() {
+        synchronized (socket) {
+            if (socket.isClosed()) {
+                return;
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                System.getLogger(HttpConnection.class.getName()).log(System.Logger.Level.DEBUG, (String) null, e);
+            }
+            ServerMetrics.connectionClosed();
+        }
+    }
+
+    /**
+     * Puts every write and flush under the write deadline, so the deadline
+     * bounds a stalled client rather than the length of the whole body.
+     */
+    private final class GuardedOutputStream extends FilterOutputStream {
+
+        GuardedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            TimingWheel.Timeout deadline = guard(TimeoutKind.WRITE, config.writeTimeoutMillis);
+            try {
+                out.write(b);
+            } finally {
+                deadline.cancel();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            TimingWheel.Timeout deadline = guard(TimeoutKind.WRITE, config.writeTimeoutMillis);
+            try {
+                out.write(b, off, len);
+            } finally {
+                deadline.cancel();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            TimingWheel.Timeout deadline = guard(TimeoutKind.WRITE, config.writeTimeoutMillis);
+            try {
+                out.flush();
+            } finally {
+                deadline.cancel();
+            }
+        }
+    }
+
+    /** Counts bytes read so the rate check can run from the timer thread. */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private volatile long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long count() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
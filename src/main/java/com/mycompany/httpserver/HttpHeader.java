@@ -0,0 +1,84 @@
+package com.mycompany.httpserver;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A response header encoded once, when it is created, so writing it on
+ * every response is a plain byte copy. Create them at startup (as constants
+ * or in a filter's constructor), not per request.
+ */
+public final class HttpHeader {
+
+    public static final HttpHeader CONTENT_TYPE_HTML = of("Content-Type", "text/html");
+    public static final HttpHeader CONTENT_TYPE_CSS = of("Content-Type", "text/css");
+    public static final HttpHeader CONTENT_TYPE_JS = of("Content-Type", "text/javascript");
+    public static final HttpHeader CONTENT_TYPE_JSON = of("Content-Type", "application/json");
+    public static final HttpHeader CONTENT_TYPE_TEXT = of("Content-Type", "text/plain");
+    public static final HttpHeader CONTENT_TYPE_PNG = of("Content-Type", "image/png");
+    public static final HttpHeader CONTENT_TYPE_JPEG = of("Content-Type", "image/jpeg");
+    public static final HttpHeader CONTENT_TYPE_ICON = of("Content-Type", "image/x-icon");
+
+    static final HttpHeader CONNECTION_CLOSE = of("Connection", "close");
+    static final HttpHeader TRANSFER_ENCODING_CHUNKED = of("Transfer-Encoding", "chunked");
+    static final byte[] CONTENT_LENGTH_PREFIX = "Content-Length: ".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] CRLF = {'\r', '\n'};
+
+    final String name;
+    final String value;
+    /** Lower case name, as HTTP/2 requires. */
+    final String lowerName;
+    /** "Name: value" without the line ending, for headers completed with a number. */
+    final byte[] prefix;
+    /** "Name: value\r\n". */
+    final byte[] line;
+
+    private HttpHeader(String name, String value) {
+        this.name = name;
+        this.value = value;
+        this.lowerName = name.toLowerCase();
+        this.prefix = (name + ": " + value).getBytes(StandardCharsets.ISO_8859_1);
+        this.line = (name + ": " + value + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    public static HttpHeader of(String name, String value) {
+        if (name.isEmpty() || name.indexOf(':') >= 0 || name.indexOf('\r') >= 0 || name.indexOf('\n') >= 0
+                || value.indexOf('\r') >= 0 || value.indexOf('\n') >= 0) {
+            throw new IllegalArgumentException("Invalid header: " + name);
+        }
+        return new HttpHeader(name, value);
+    }
+
+    /** Whether {@code s} is an RFC 9110 token, as methods and field names must be. */
+    static boolean isToken(String s) {
+        if (s.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'
+                    || "!#$%&'*+-.^_`|~".indexOf(c) >= 0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Whether {@code value} is free of CR, LF and NUL, which would split or truncate a header line. */
+    static boolean isFieldValue(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\r' || c == '\n' || c == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getValue() {
+        return value;
+    }
+}
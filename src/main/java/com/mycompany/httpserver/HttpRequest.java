@@ -5,10 +5,25 @@ import java.util.Map;
 
 public class HttpRequest {
     URI requestUri;
+    String method = "GET";
+    String version = "HTTP/1.1";
+    Map<String, String> headers = new HashMap<>();
+    byte[] body = new byte[0];
+    TraceContext traceContext;
+    String remoteAddress;
+
     HttpRequest(URI reqUri) {
         requestUri = reqUri;
     }
-    
+
+    HttpRequest(String method, URI reqUri, String version, Map<String, String> headers, byte[] body) {
+        this.method = method;
+        this.requestUri = reqUri;
+        this.version = version;
+        this.headers = headers;
+        this.body = body;
+    }
+
     public String getValue(String paramName){
         String query = requestUri.getQuery();
         if (query == null){
@@ -27,4 +42,36 @@ public class HttpRequest {
         }
         return queryParam.get(paramName) != null ? queryParam.get(paramName) : "";
     }
+
+    public String getMethod() {
+        return method;
+    }
+
+    /** Header names are matched case-insensitively; returns null when absent. */
+    public String getHeader(String name) {
+        return headers.get(name.toLowerCase());
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    /** Trace of this request, or null unless the server runs with --trace-context=true. */
+    public TraceContext getTraceContext() {
+        return traceContext;
+    }
+
+    /** Client IP address, or null when the request did not come from a socket. */
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    /** HTTP/1.1 is persistent unless told otherwise, HTTP/1.0 only on request. */
+    boolean isKeepAlive() {
+        String connection = getHeader("connection");
+        if ("HTTP/1.1".equals(version)) {
+            return connection == null || !connection.equalsIgnoreCase("close");
+        }
+        return connection != null && connection.equalsIgnoreCase("keep-alive");
+    }
 }
@@ -1,9 +1,379 @@
-/*
- * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
- * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
- */
 package com.mycompany.httpserver;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Response filled by the handlers, services and filters. Headers are
+ * pre-encoded {@link HttpHeader}s, so writing the response head copies bytes
+ * and formats Content-Length (and numeric header values) into a scratch
+ * buffer; nothing is concatenated or charset-encoded per request.
+ */
 public class HttpResponse {
-    
+
+    private static final int INITIAL_HEADERS = 8;
+    private static final int FIXED = -1;
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * A body copied to the client while the response is written instead of
+     * being held in memory, e.g. relayed from an upstream server. It is
+     * always closed, whether or not it was written.
+     */
+    public interface StreamingBody extends Closeable {
+
+        /** Writes the whole body; called at most once. */
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /** Null when the code is not one of the registered {@link HttpStatus}es. */
+    HttpStatus status = HttpStatus.OK;
+    int statusCode = 200;
+    byte[] statusLine = HttpStatus.OK.statusLine;
+    HttpHeader contentType;
+    byte[] body = EMPTY;
+    boolean close;
+    /** Reused for every JSON body written through this response. */
+    JsonWriter json;
+    boolean jsonBody;
+    StreamingBody stream;
+    /** Length of {@link #stream}, or -1 when unknown. */
+    long streamLength;
+    /**
+     * Set for a HEAD request: the head carries the length the body would
+     * have, the body itself is not written.
+     */
+    boolean head;
+
+    HttpHeader[] headers = new HttpHeader[INITIAL_HEADERS];
+    long[] values = new long[INITIAL_HEADERS];
+    int[] scales = new int[INITIAL_HEADERS];
+    int headerCount;
+
+    private final byte[] digits = new byte[24];
+
+    /** Null when the status was set by code and the code is not registered. */
+    public HttpStatus getStatus() {
+        return status;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public void setStatus(HttpStatus status) {
+        this.status = status;
+        this.statusCode = status.code;
+        this.statusLine = status.statusLine;
+    }
+
+    /**
+     * Sets any three digit status, e.g. one relayed from an upstream server.
+     * Registered codes use their pre-encoded {@link HttpStatus} line; others
+     * get a status line encoded here, with {@code reason} as given.
+     */
+    public void setStatus(int code, String reason) {
+        if (code < 100 || code > 999 || reason.indexOf('\r') >= 0 || reason.indexOf('\n') >= 0) {
+            throw new IllegalArgumentException("Invalid status: " + code);
+        }
+        HttpStatus registered = HttpStatus.of(code);
+        if (registered != null) {
+            setStatus(registered);
+            return;
+        }
+        this.status = null;
+        this.statusCode = code;
+        this.statusLine = ("HTTP/1.1 " + code + " " + reason + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /** ":status" value for HTTP/2. */
+    String codeText() {
+        return status != null ? status.codeText : String.valueOf(statusCode);
+    }
+
+    public HttpHeader getContentType() {
+        return contentType;
+    }
+
+    public void setContentType(HttpHeader contentType) {
+        this.contentType = contentType;
+    }
+
+    /** Buffers a streaming body first (HTTP/2 sends whole bodies). */
+    public byte[] getBody() {
+        return getBody(Long.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #getBody()}, but a streaming body longer than {@code limit}
+     * is closed without reading the rest and fails with an UncheckedIOException.
+     */
+    byte[] getBody(long limit) {
+        if (stream != null) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            try (StreamingBody pending = stream) {
+                stream = null;
+                if (streamLength > limit) {
+                    throw new IOException("Body of " + streamLength + " bytes exceeds " + limit);
+                }
+                pending.writeTo(new CountingOutputStream(buffer, limit));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            body = buffer.toByteArray();
+        }
+        return jsonBody ? json.toByteArray() : body;
+    }
+
+    public void setBody(byte[] body) {
+        discardStream();
+        this.body = body;
+        this.jsonBody = false;
+    }
+
+    /**
+     * Streams the body while the response is written. With a known length
+     * it is sent with Content-Length; otherwise chunked, or for HTTP/1.0
+     * clients until the connection closes.
+     */
+    public void setBody(StreamingBody body, long length) {
+        discardStream();
+        this.stream = body;
+        this.streamLength = length;
+        this.body = EMPTY;
+        this.jsonBody = false;
+    }
+
+    /**
+     * Starts a JSON body: sets the content type and returns an empty writer
+     * whose output becomes the body. A service that writes through it
+     * returns null instead of a String.
+     */
+    public JsonWriter json() {
+        discardStream();
+        if (json == null) {
+            json = new JsonWriter();
+        }
+        json.reset();
+        jsonBody = true;
+        contentType = HttpHeader.CONTENT_TYPE_JSON;
+        return json;
+    }
+
+    /** -1 for a streaming body of unknown length. */
+    long bodyLength() {
+        if (stream != null) {
+            return streamLength;
+        }
+        return jsonBody ? json.size : body.length;
+    }
+
+    public void addHeader(HttpHeader header) {
+        add(header, 0, FIXED);
+    }
+
+    /**
+     * Adds {@code header} with a decimal number appended to its value, e.g.
+     * {@code of("Server-Timing", "app;dur=")} with 1234 and scale 3 is written
+     * as {@code Server-Timing: app;dur=1.234}.
+     */
+    public void addHeader(HttpHeader header, long unscaledValue, int scale) {
+        if (scale < 0 || scale > 18) {
+            throw new IllegalArgumentException("scale out of range: " + scale);
+        }
+        add(header, unscaledValue, scale);
+    }
+
+    private void add(HttpHeader header, long value, int scale) {
+        if (headerCount == headers.length) {
+            // grows once per connection at most; later responses reuse the arrays
+            headers = Arrays.copyOf(headers, headerCount * 2);
+            values = Arrays.copyOf(values, headerCount * 2);
+            scales = Arrays.copyOf(scales, headerCount * 2);
+        }
+        headers[headerCount] = header;
+        values[headerCount] = value;
+        scales[headerCount] = scale;
+        headerCount++;
+    }
+
+    /** Value of header {@code i} as text, for HTTP/2 where HPACK needs strings. */
+    String headerValue(int i) {
+        if (scales[i] == FIXED) {
+            return headers[i].value;
+        }
+        int length = formatDecimal(values[i], scales[i]);
+        return headers[i].value + new String(digits, digits.length - length, length, StandardCharsets.US_ASCII);
+    }
+
+    void reset() {
+        discardStream();
+        setStatus(HttpStatus.OK);
+        contentType = null;
+        body = EMPTY;
+        jsonBody = false;
+        close = false;
+        head = false;
+        for (int i = 0; i < headerCount; i++) {
+            headers[i] = null;
+        }
+        headerCount = 0;
+    }
+
+    private void discardStream() {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                System.getLogger(HttpResponse.class.getName()).log(System.Logger.Level.ERROR, (String) null, e);
+            }
+            stream = null;
+        }
+    }
+
+    /**
+     * Whether the status allows a body and a Content-Length; 1xx, 204 and
+     * 304 responses have neither (RFC 9110 section 8.6).
+     */
+    boolean bodyAllowed() {
+        return statusCode >= 200 && statusCode != 204 && statusCode != 304;
+    }
+
+    /**
+     * Returns the number of bytes written. Throws if a streaming body ends
+     * before its declared length; the connection must then be closed.
+     */
+    long writeTo(OutputStream out) throws IOException {
+        if (head || !bodyAllowed()) {
+            long length = bodyAllowed() ? bodyLength() : -1;
+            discardStream();
+            return writeHead(out, length);
+        }
+        if (stream != null) {
+            try (StreamingBody pending = stream) {
+                stream = null;
+                return writeStreaming(pending, out);
+            }
+        }
+        long written = writeHead(out, bodyLength());
+        byte[] content = jsonBody ? json.buffer : body;
+        int contentLength = (int) bodyLength();
+        out.write(content, 0, contentLength);
+        return written + contentLength;
+    }
+
+    private long writeStreaming(StreamingBody pending, OutputStream out) throws IOException {
+        boolean chunked = streamLength < 0 && !close;
+        long written = writeHead(out, chunked ? -2 : streamLength);
+        CountingOutputStream counted = new CountingOutputStream(out, Long.MAX_VALUE);
+        if (chunked) {
+            ChunkedOutputStream chunks = new ChunkedOutputStream(counted);
+            pending.writeTo(chunks);
+            chunks.finish();
+        } else {
+            pending.writeTo(counted);
+            if (streamLength >= 0 && counted.count != streamLength) {
+                throw new IOException("Body ended after " + counted.count + " of " + streamLength + " bytes");
+            }
+        }
+        return written + counted.count;
+    }
+
+    /**
+     * Writes the status line and headers. {@code contentLength} -1 omits the
+     * length (the body runs until close), -2 announces a chunked body.
+     */
+    private long writeHead(OutputStream out, long contentLength) throws IOException {
+        long written = statusLine.length;
+        out.write(statusLine);
+        if (contentType != null) {
+            out.write(contentType.line);
+            written += contentType.line.length;
+        }
+        for (int i = 0; i < headerCount; i++) {
+            if (scales[i] == FIXED) {
+                out.write(headers[i].line);
+                written += headers[i].line.length;
+            } else {
+                out.write(headers[i].prefix);
+                int length = formatDecimal(values[i], scales[i]);
+                out.write(digits, digits.length - length, length);
+                out.write(HttpHeader.CRLF);
+                written += headers[i].prefix.length + length + 2;
+            }
+        }
+        if (contentLength >= 0) {
+            out.write(HttpHeader.CONTENT_LENGTH_PREFIX);
+            int length = formatDecimal(contentLength, 0);
+            out.write(digits, digits.length - length, length);
+            out.write(HttpHeader.CRLF);
+            written += HttpHeader.CONTENT_LENGTH_PREFIX.length + length + 2;
+        } else if (contentLength == -2) {
+            out.write(HttpHeader.TRANSFER_ENCODING_CHUNKED.line);
+            written += HttpHeader.TRANSFER_ENCODING_CHUNKED.line.length;
+        }
+        if (close) {
+            out.write(HttpHeader.CONNECTION_CLOSE.line);
+            written += HttpHeader.CONNECTION_CLOSE.line.length;
+        }
+        out.write(HttpHeader.CRLF);
+        return written + 2;
+    }
+
+    /** Writes the number right-aligned into {@code digits}; returns its length. */
+    private int formatDecimal(long value, int scale) {
+        boolean negative = value < 0;
+        long remaining = negative ? -value : value;
+        int pos = digits.length;
+        int written = 0;
+        do {
+            if (scale > 0 && written == scale) {
+                digits[--pos] = '.';
+            }
+            digits[--pos] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+            written++;
+        } while (remaining > 0 || written <= scale);
+        if (negative) {
+            digits[--pos] = '-';
+        }
+        return digits.length - pos;
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private final long limit;
+        long count;
+
+        CountingOutputStream(OutputStream out, long limit) {
+            super(out);
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            checkLimit(1);
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            checkLimit(len);
+            out.write(b, off, len);
+            count += len;
+        }
+
+        private void checkLimit(int len) throws IOException {
+            if (count + len > limit) {
+                throw new IOException("Body exceeds " + limit + " bytes");
+            }
+        }
+    }
 }
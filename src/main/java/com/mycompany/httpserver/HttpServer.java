@@ -2,233 +2,352 @@ package com.mycompany.httpserver;
 
 import java.net.*;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class HttpServer {
 
     private static String principalPath = "src/main/java/resorces/";
     public static Map<String, Service> services = new HashMap<String, Service>();
+    static volatile boolean running;
+    private static volatile List<ServerSocket> listeners = List.of();
+    private static volatile Filter[] filters = new Filter[0];
+    private static volatile ReverseProxy[] proxies = new ReverseProxy[0];
+    /** Proxies from the --proxy options; replaced on every start. */
+    private static volatile ReverseProxy[] configuredProxies = new ReverseProxy[0];
+
+    private static final byte[] NOT_FOUND_BODY = "404 Not Found".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] INTERNAL_ERROR_BODY = "500 Internal Server Error".getBytes(StandardCharsets.US_ASCII);
+    private static final long ACCEPT_BACKOFF_MILLIS = 10;
+    private static final long MAX_ACCEPT_BACKOFF_MILLIS = 1_000;
 
     public static void startServer(String[] args) throws IOException, URISyntaxException {
-        ServerSocket serverSocket = null;
+        ServerConfig config = ServerConfig.fromArgs(args);
+        List<ServerSocket> serverSockets = null;
         try {
-            serverSocket = new ServerSocket(35000);
+            serverSockets = bindListeners(config);
         } catch (IOException e) {
-            System.err.println("Could not listen on port: 35000.");
+            System.err.println("Could not listen on port: " + config.port + ".");
             System.exit(1);
         }
-        Socket clientSocket = null;
+        listeners = serverSockets;
 
-        boolean running = true;
+        ReverseProxy[] fromConfig = new ReverseProxy[config.proxies.size()];
+        for (int i = 0; i < fromConfig.length; i++) {
+            fromConfig[i] = ReverseProxy.fromConfig(config.proxies.get(i), config);
+        }
+        configuredProxies = fromConfig;
+        for (ReverseProxy proxy : allProxies()) {
+            proxy.start();
+            System.out.println("Proxy " + proxy.prefix + " -> " + Arrays.toString(proxy.upstreams));
+        }
 
-        while (running) {
+        TimingWheel timers = new TimingWheel(config.timerTickMillis, config.timerTicksPerWheel);
+        timers.start();
+        ExecutorService connections = Executors.newVirtualThreadPerTaskExecutor();
 
+        running = true;
+
+        Thread[] acceptors = new Thread[config.acceptors];
+        for (int i = 0; i < acceptors.length; i++) {
+            ServerSocket serverSocket = serverSockets.get(i % serverSockets.size());
+            acceptors[i] = new Thread(() -> acceptLoop(serverSocket, config, timers, connections), "acceptor-" + i);
+            acceptors[i].start();
+        }
+        for (Thread acceptor : acceptors) {
             try {
-                System.out.println("Listo para recibir ...");
-                clientSocket = serverSocket.accept();
-            } catch (IOException e) {
-                System.err.println("Accept failed.");
-                System.exit(1);
+                acceptor.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
             }
+        }
+        connections.shutdown();
+        timers.stop();
+        for (ServerSocket serverSocket : serverSockets) {
+            serverSocket.close();
+        }
+    }
 
-            PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true);
-            BufferedReader in = new BufferedReader(
-                    new InputStreamReader(
-                            clientSocket.getInputStream()));
-            String inputLine;
-
-            boolean isFirstLine = true;
-            URI requestUri = null;
-
-            while ((inputLine = in.readLine()) != null) {
+    /**
+     * Accepts until the server stops. A failed accept, e.g. EMFILE while
+     * connections churn, is logged and retried after a growing pause instead
+     * of ending the acceptor.
+     */
+    static void acceptLoop(ServerSocket serverSocket, ServerConfig config, TimingWheel timers,
+            ExecutorService connections) {
+        System.out.println("Listo para recibir en " + serverSocket.getLocalSocketAddress()
+                + " (" + Thread.currentThread().getName() + ") ...");
+        long backoffMillis = 0;
+        while (running) {
 
-                if (isFirstLine) {
-                    // get the URI
-                    requestUri = new URI(inputLine.split(" ")[1]);
-                    System.out.println("Path: " + requestUri.getPath());
-                    isFirstLine = false;
+            Socket clientSocket;
+            try {
+                clientSocket = serverSocket.accept();
+                backoffMillis = 0;
+            } catch (IOException e) {
+                if (!running || serverSocket.isClosed()) {
+                    break;
                 }
-                System.out.println("Received: " + inputLine);
-                if (!in.ready()) {
+                backoffMillis = Math.min(Math.max(backoffMillis * 2, ACCEPT_BACKOFF_MILLIS), MAX_ACCEPT_BACKOFF_MILLIS);
+                System.err.println("Accept failed, retrying in " + backoffMillis + " ms: " + e);
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
                     break;
                 }
-
+                continue;
             }
-            typeRequest(requestUri, out, clientSocket.getOutputStream());
-            out.close();
-            in.close();
-            clientSocket.close();
+            ServerEvents.Accept accepted = new ServerEvents.Accept();
+            accepted.begin();
+            ServerMetrics.connectionAccepted();
+            connections.execute(new HttpConnection(clientSocket, config, timers, accepted));
 
         }
-        serverSocket.close();
     }
 
-    private static void typeRequest(URI requestUri, PrintWriter out, OutputStream imageOut) {
-        if (requestUri.getPath().endsWith(".js")) {
-            handleJS(requestUri, out);
-        } else if (requestUri.getPath().endsWith(".css")) {
-            handleCSS(requestUri, out);
-        } else if (requestUri.getPath().endsWith(".html") || requestUri.getPath().equalsIgnoreCase("/")) {
-            handleHTML(requestUri, out);
-        } else if (requestUri.getPath().startsWith("/app")) {
-            processAppRequest(requestUri, out);
-        } else if (requestUri.getPath().endsWith(".png")
-                || requestUri.getPath().endsWith(".jpg") || requestUri.getPath().endsWith(".ico")) {
-            try {
-                handleImage(requestUri, imageOut);
-            } catch (IOException ex) {
-                System.getLogger(HttpServer.class.getName()).log(System.Logger.Level.ERROR, (String) null, ex);
+    /**
+     * With several acceptors and SO_REUSEPORT available (Linux), each acceptor
+     * gets its own listening socket on the same port and the kernel spreads
+     * new connections across them. Otherwise all acceptors share one socket.
+     */
+    static List<ServerSocket> bindListeners(ServerConfig config) throws IOException {
+        int count = 1;
+        if (config.acceptors > 1 && config.reusePort) {
+            try (ServerSocket probe = new ServerSocket()) {
+                if (probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                    count = config.acceptors;
+                } else {
+                    System.err.println("SO_REUSEPORT not supported, acceptors will share one socket.");
+                }
             }
-        } else {
-            handleNotFound(out);
-        }
-    }
-
-    private static void handleNotFound(PrintWriter out) {
-        String response = "HTTP/1.1 404 Not Found\r\n"
-                + "Content-Type: text/plain\r\n"
-                + "\r\n"
-                + "404 Not Found";
-        out.write(response);
-    }
-
-    private static void handleJS(URI requestUri, PrintWriter out) {
-
-        String filePath = principalPath + requestUri.getPath();
-        File file = new File(filePath);
-        if (!file.exists()) {
-            handleNotFound(out);
-            return;
         }
-
-        String output = "HTTP/1.1 200 OK\n\r"
-                + "contente-type: text/javascript\n\r"
-                + "\n\r";
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                output += line + "\n";
+        InetAddress address = config.bindAddress == null ? null : InetAddress.getByName(config.bindAddress);
+        List<ServerSocket> serverSockets = new ArrayList<>(count);
+        int port = config.port;
+        try {
+            for (int i = 0; i < count; i++) {
+                ServerSocket serverSocket = new ServerSocket();
+                serverSockets.add(serverSocket);
+                if (count > 1) {
+                    serverSocket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                serverSocket.bind(new InetSocketAddress(address, port), config.backlog);
+                // port 0 picks an ephemeral port; the other sockets must join it
+                port = serverSocket.getLocalPort();
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            for (ServerSocket serverSocket : serverSockets) {
+                serverSocket.close();
+            }
+            throw e;
         }
-
-        out.write(output);
+        return serverSockets;
     }
 
-    private static void handleCSS(URI requestUri, PrintWriter out) {
-
-        String filePath = principalPath + requestUri.getPath();
-        File file = new File(filePath);
-        if (!file.exists()) {
-            handleNotFound(out);
-            return;
+    /**
+     * Port the server listens on, or -1 while it is not running. Differs from
+     * --port when that is 0 and the system picked an ephemeral port.
+     */
+    static int localPort() {
+        List<ServerSocket> current = listeners;
+        if (!running || current.isEmpty() || current.get(0).isClosed()) {
+            return -1;
         }
+        return current.get(0).getLocalPort();
+    }
 
-        String output = "HTTP/1.1 200 OK\n\r"
-                + "contente-type: text/css\n\r"
-                + "\n\r";
+    /**
+     * Stops accepting connections; requests already in flight finish on their own.
+     */
+    public static void stopServer() throws IOException {
+        running = false;
+        for (ServerSocket serverSocket : listeners) {
+            serverSocket.close();
+        }
+        for (ReverseProxy proxy : allProxies()) {
+            proxy.stop();
+        }
+        configuredProxies = new ReverseProxy[0];
+    }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                output += line + "\n";
+    /**
+     * Picks the handler for the request path and fills in the response. Runs
+     * at the end of the {@link FilterChain}.
+     */
+    static void route(HttpRequest req, HttpResponse res) {
+        URI requestUri = req.requestUri;
+        ServerEvents.Handler event = new ServerEvents.Handler();
+        event.begin();
+        String handler;
+        ReverseProxy proxy = proxyFor(requestUri.getPath());
+        try {
+            if (proxy != null) {
+                handler = "proxy";
+                proxy.handle(req, res);
+            } else if (requestUri.getPath().endsWith(".js")) {
+                handler = "js";
+                handleJS(requestUri, res);
+            } else if (requestUri.getPath().endsWith(".css")) {
+                handler = "css";
+                handleCSS(requestUri, res);
+            } else if (requestUri.getPath().endsWith(".html") || requestUri.getPath().equalsIgnoreCase("/")) {
+                handler = "html";
+                handleHTML(requestUri, res);
+            } else if (requestUri.getPath().startsWith("/app")) {
+                handler = "service";
+                processAppRequest(req, res);
+            } else if (requestUri.getPath().endsWith(".png")
+                    || requestUri.getPath().endsWith(".jpg") || requestUri.getPath().endsWith(".ico")) {
+                handler = "image";
+                handleImage(requestUri, res);
+            } else {
+                handler = "not-found";
+                handleNotFound(res);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+        } catch (IOException ex) {
+            System.getLogger(HttpServer.class.getName()).log(System.Logger.Level.ERROR, (String) null, ex);
+            handler = "error";
+            res.setStatus(HttpStatus.INTERNAL_SERVER_ERROR);
+            res.setContentType(HttpHeader.CONTENT_TYPE_TEXT);
+            res.setBody(INTERNAL_ERROR_BODY);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.route = requestUri.getPath();
+            event.handler = handler;
+            event.status = res.statusCode;
+            event.bytes = res.bodyLength();
+            event.traceId = ServerEvents.traceId(req);
+            event.spanId = ServerEvents.spanId(req);
+            event.commit();
         }
+    }
 
-        out.write(output);
+    private static void handleNotFound(HttpResponse res) {
+        res.setStatus(HttpStatus.NOT_FOUND);
+        res.setContentType(HttpHeader.CONTENT_TYPE_TEXT);
+        res.setBody(NOT_FOUND_BODY);
     }
 
-    private static void handleHTML(URI requestUri, PrintWriter out) {
+    private static void handleJS(URI requestUri, HttpResponse res) throws IOException {
+        handleFile(principalPath + requestUri.getPath(), HttpHeader.CONTENT_TYPE_JS, res);
+    }
+
+    private static void handleCSS(URI requestUri, HttpResponse res) throws IOException {
+        handleFile(principalPath + requestUri.getPath(), HttpHeader.CONTENT_TYPE_CSS, res);
+    }
 
+    private static void handleHTML(URI requestUri, HttpResponse res) throws IOException {
         String filePath = requestUri.getPath().equalsIgnoreCase("/") ? principalPath + "index.html" : principalPath + requestUri.getPath();
+        handleFile(filePath, HttpHeader.CONTENT_TYPE_HTML, res);
+    }
+
+    private static void handleFile(String filePath, HttpHeader contentType, HttpResponse res) throws IOException {
         File file = new File(filePath);
-        if (!file.exists()) {
-            handleNotFound(out);
+        if (!file.isFile()) {
+            handleNotFound(res);
             return;
         }
-
-        String output = "HTTP/1.1 200 OK\n\r"
-                + "contente-type: text/html\n\r"
-                + "\n\r";
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                output += line + "\n";
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        out.write(output);
+        res.setContentType(contentType);
+        res.setBody(Files.readAllBytes(file.toPath()));
     }
 
-    private static void processAppRequest(URI requestUri, PrintWriter out) {
-        String serRoute = requestUri.getPath().substring(4);
+    private static void processAppRequest(HttpRequest req, HttpResponse res) {
+        String serRoute = req.requestUri.getPath().substring(4);
         Service serviRequest = services.get(serRoute);
 
         if (serviRequest == null) {
-            handleNotFound(out);
+            handleNotFound(res);
             return;
         }
 
-        HttpRequest req = new HttpRequest(requestUri);
-        HttpResponse res = new HttpResponse();
+        res.setContentType(HttpHeader.CONTENT_TYPE_JSON);
+        String body = serviRequest.executeService(req, res);
+        if (body != null) {
+            res.setBody(body.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void handleImage(URI requestUri, HttpResponse res) throws IOException {
 
-        String responseHeader = "HTTP/1.1 200 OK\n\r"
-                + "contente-type: application/json\n\r"
-                + "\n\r";
+        String filePath = requestUri.getPath().startsWith("/images/") ? principalPath + requestUri.getPath() : principalPath + "images/" + requestUri.getPath();
 
-        out.write(responseHeader + serviRequest.executeService(req, res));
+        String path = requestUri.getPath();
+        HttpHeader contentType = path.endsWith(".png") ? HttpHeader.CONTENT_TYPE_PNG
+                : path.endsWith(".jpg") ? HttpHeader.CONTENT_TYPE_JPEG : HttpHeader.CONTENT_TYPE_ICON;
+        handleFile(filePath, contentType, res);
     }
 
     /**
-     *
-     * @param requestUri
-     * @param out
-     * @throws IOException
+     * Adds a filter at the end of the chain. Filters run in registration
+     * order, for HTTP/1.1 and HTTP/2 requests alike.
      */
-    private static void handleImage(URI requestUri, OutputStream out) throws IOException {
+    public static synchronized void filter(Filter filter) {
+        Filter[] grown = Arrays.copyOf(filters, filters.length + 1);
+        grown[filters.length] = filter;
+        filters = grown;
+    }
 
-        String filePath = requestUri.getPath().startsWith("/images/") ? principalPath + requestUri.getPath() : principalPath + "images/" + requestUri.getPath();
+    public static synchronized void clearFilters() {
+        filters = new Filter[0];
+    }
 
-        File file = new File(filePath);
+    static Filter[] filters() {
+        return filters;
+    }
 
-        if (!file.exists()) {
-            PrintWriter outPrinter = new PrintWriter(out, true);
-            handleNotFound(outPrinter);
-            return;
+    /**
+     * Forwards the requests whose path starts with {@code prefix} to the
+     * given {@code host:port} upstreams. Proxies are matched before static
+     * files and services; configure the returned proxy before starting.
+     */
+    public static synchronized ReverseProxy proxy(String prefix, String... upstreams) {
+        ReverseProxy proxy = new ReverseProxy(prefix, upstreams);
+        ReverseProxy[] grown = Arrays.copyOf(proxies, proxies.length + 1);
+        grown[proxies.length] = proxy;
+        proxies = grown;
+        if (running) {
+            proxy.start();
         }
+        return proxy;
+    }
 
-        String extension = requestUri.getPath().substring(requestUri.getPath().lastIndexOf(".") + 1).toLowerCase();
-
-        String output = "HTTP/1.1 200 OK\r\n"
-                + "Content-Type: image/" + extension + "\r\n"
-                + "Content-Length: " + file.length() + "\r\n"
-                + "\r\n";
-
-        try {
-            out.write(output.getBytes("UTF-8"));
-        } catch (UnsupportedEncodingException ex) {
-            System.getLogger(HttpServer.class.getName()).log(System.Logger.Level.ERROR, (String) null, ex);
+    public static synchronized void clearProxies() {
+        for (ReverseProxy proxy : proxies) {
+            proxy.stop();
         }
+        proxies = new ReverseProxy[0];
+    }
 
-        try (FileInputStream fileInputStream = new FileInputStream(file); BufferedInputStream bufferedInputStream = new BufferedInputStream(fileInputStream)) {
-
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            while ((bytesRead = bufferedInputStream.read(buffer)) != -1) {
-                out.write(buffer, 0, bytesRead);
+    private static ReverseProxy proxyFor(String path) {
+        for (ReverseProxy proxy : proxies) {
+            if (proxy.matches(path)) {
+                return proxy;
+            }
+        }
+        for (ReverseProxy proxy : configuredProxies) {
+            if (proxy.matches(path)) {
+                return proxy;
             }
         }
-        out.flush();
+        return null;
+    }
+
+    private static List<ReverseProxy> allProxies() {
+        List<ReverseProxy> all = new ArrayList<>(Arrays.asList(proxies));
+        all.addAll(Arrays.asList(configuredProxies));
+        return all;
     }
 
     public static void get(String route, Service s) {
@@ -0,0 +1,128 @@
+package com.mycompany.httpserver;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * HPACK Huffman code (RFC 7541, Appendix B).
+ *
+ * The code is canonical: codes of the same length are consecutive and
+ * ordered by symbol, so the table is rebuilt from the code lengths alone and
+ * decoding only needs the first code and symbol offset of every length.
+ */
+final class Huffman {
+
+    private static final int EOS = 256;
+
+    private static final byte[] LENGTHS = {
+        13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+        28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+        6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+        5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+        13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+        7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+        15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+        6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+        20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+        24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+        22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+        21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+        26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+        19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+        20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+        26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+        30
+    };
+
+    private static final int MAX_LENGTH = 30;
+
+    static final int[] CODES = new int[257];
+    /** Smallest code of each length, and index in SYMBOLS of its symbol. */
+    private static final int[] FIRST_CODE = new int[MAX_LENGTH + 2];
+    private static final int[] COUNT = new int[MAX_LENGTH + 2];
+    private static final int[] OFFSET = new int[MAX_LENGTH + 2];
+    private static final int[] SYMBOLS = new int[257];
+
+    static {
+        for (int symbol = 0; symbol < LENGTHS.length; symbol++) {
+            COUNT[LENGTHS[symbol]]++;
+        }
+        int code = 0;
+        int offset = 0;
+        for (int length = 1; length <= MAX_LENGTH; length++) {
+            code = (code + COUNT[length - 1]) << 1;
+            FIRST_CODE[length] = code;
+            OFFSET[length] = offset;
+            offset += COUNT[length];
+        }
+        int[] next = FIRST_CODE.clone();
+        int[] slot = OFFSET.clone();
+        for (int symbol = 0; symbol < LENGTHS.length; symbol++) {
+            int length = LENGTHS[symbol];
+            CODES[symbol] = next[length]++;
+            SYMBOLS[slot[length]++] = symbol;
+        }
+    }
+
+    private Huffman() {
+    }
+
+    static int codeLength(int symbol) {
+        return LENGTHS[symbol];
+    }
+
+    /** Length in bytes of {@code value} once encoded. */
+    static int encodedLength(byte[] value) {
+        long bits = 0;
+        for (byte b : value) {
+            bits += LENGTHS[b & 0xff];
+        }
+        return (int) ((bits + 7) >> 3);
+    }
+
+    static void encode(byte[] value, ByteArrayOutputStream out) {
+        long buffer = 0;
+        int bits = 0;
+        for (byte b : value) {
+            int symbol = b & 0xff;
+            buffer = (buffer << LENGTHS[symbol]) | CODES[symbol];
+            bits += LENGTHS[symbol];
+            while (bits >= 8) {
+                bits -= 8;
+                out.write((int) (buffer >> bits));
+            }
+        }
+        if (bits > 0) {
+            // pad with the most significant bits of EOS (all ones)
+            out.write((int) ((buffer << (8 - bits)) | (0xff >> bits)));
+        }
+    }
+
+    static byte[] decode(byte[] data, int offset, int length) throws HpackException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length * 8 / 5 + 1);
+        int code = 0;
+        int codeLength = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int b = data[i] & 0xff;
+            for (int bit = 7; bit >= 0; bit--) {
+                code = (code << 1) | ((b >> bit) & 1);
+                codeLength++;
+                int index = code - FIRST_CODE[codeLength];
+                if (index >= 0 && index < COUNT[codeLength]) {
+                    int symbol = SYMBOLS[OFFSET[codeLength] + index];
+                    if (symbol == EOS) {
+                        throw new HpackException("EOS symbol in Huffman string");
+                    }
+                    out.write(symbol);
+                    code = 0;
+                    codeLength = 0;
+                } else if (codeLength == MAX_LENGTH) {
+                    throw new HpackException("Invalid Huffman code");
+                }
+            }
+        }
+        if (codeLength > 7 || code != (1 << codeLength) - 1) {
+            throw new HpackException("Invalid Huffman padding");
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,510 @@
+package com.mycompany.httpserver;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Streaming JSON writer that encodes straight into a byte buffer as UTF-8.
+ * Services get one from {@link HttpResponse#json()}, which reuses the same
+ * buffer for every response of a connection:
+ *
+ * <pre>
+ * res.json().beginObject().name("pi").value(Math.PI).endObject();
+ * </pre>
+ *
+ * Commas and colons are inserted automatically. Records are written through
+ * accessors resolved once per record type.
+ */
+public final class JsonWriter {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] LONG_MIN = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+    /** Buffers grown beyond this are dropped on reset instead of being kept by the connection. */
+    private static final int MAX_RETAINED = 64 * 1024;
+    private static final int MAX_DEPTH = 64;
+    /** Powers of ten up to 1e22 are exact doubles. */
+    private static final int MAX_SCALE = 22;
+    private static final double[] POW10 = new double[MAX_SCALE + 1];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i <= MAX_SCALE; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    byte[] buffer;
+    int size;
+
+    /** Per nesting level: whether a value was written, so the next one needs a comma. */
+    private final boolean[] hasValue = new boolean[MAX_DEPTH + 1];
+    /** Per nesting level: object or array, so names, values and closing brackets can be checked. */
+    private final boolean[] inObject = new boolean[MAX_DEPTH + 1];
+    private int depth;
+    private boolean afterName;
+
+    public JsonWriter() {
+        this(256);
+    }
+
+    JsonWriter(int capacity) {
+        buffer = new byte[capacity];
+    }
+
+    void reset() {
+        if (buffer.length > MAX_RETAINED) {
+            buffer = new byte[256];
+        }
+        size = 0;
+        depth = 0;
+        hasValue[0] = false;
+        afterName = false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Copy of the bytes written so far. */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    public JsonWriter beginObject() {
+        return open('{');
+    }
+
+    public JsonWriter endObject() {
+        return close('}');
+    }
+
+    public JsonWriter beginArray() {
+        return open('[');
+    }
+
+    public JsonWriter endArray() {
+        return close(']');
+    }
+
+    public JsonWriter name(String name) {
+        if (afterName || !inObject[depth]) {
+            throw new IllegalStateException("Name outside of an object: " + name);
+        }
+        if (hasValue[depth]) {
+            put((byte) ',');
+        }
+        hasValue[depth] = true;
+        writeString(name);
+        put((byte) ':');
+        afterName = true;
+        return this;
+    }
+
+    /** Writes a name already encoded as {@code "name":}, see {@link RecordJson}. */
+    JsonWriter rawName(byte[] encodedName) {
+        if (afterName || !inObject[depth]) {
+            throw new IllegalStateException("Name outside of an object");
+        }
+        if (hasValue[depth]) {
+            put((byte) ',');
+        }
+        hasValue[depth] = true;
+        put(encodedName, 0, encodedName.length);
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        writeString(value);
+        return this;
+    }
+
+    public JsonWriter value(boolean value) {
+        beforeValue();
+        byte[] literal = value ? TRUE : FALSE;
+        put(literal, 0, literal.length);
+        return this;
+    }
+
+    public JsonWriter nullValue() {
+        beforeValue();
+        put(NULL, 0, NULL.length);
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        beforeValue();
+        writeLong(value);
+        return this;
+    }
+
+    /** Integral values are written without a fraction; NaN and infinities are not valid JSON. */
+    public JsonWriter value(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("JSON cannot represent " + value);
+        }
+        beforeValue();
+        if (!writeDecimal(value)) {
+            // very large or very small: the JDK's shortest representation
+            writeAscii(Double.toString(value));
+        }
+        return this;
+    }
+
+    /**
+     * Writes strings, numbers, booleans, null, records, enums (by name),
+     * maps with string keys, iterables and arrays.
+     */
+    public JsonWriter value(Object value) {
+        if (value == null) {
+            return nullValue();
+        } else if (value instanceof String s) {
+            return value(s);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte) {
+            return value(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            return value(((Number) value).doubleValue());
+        } else if (value instanceof BigDecimal || value instanceof BigInteger) {
+            beforeValue();
+            writeAscii(value instanceof BigDecimal d ? d.toString() : value.toString());
+            return this;
+        } else if (value instanceof Boolean b) {
+            return value(b.booleanValue());
+        } else if (value instanceof Record r) {
+            return value(r);
+        } else if (value instanceof Enum<?> e) {
+            return value(e.name());
+        } else if (value instanceof CharSequence s) {
+            return value(s.toString());
+        } else if (value instanceof Map<?, ?> map) {
+            beginObject();
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                name(String.valueOf(entry.getKey()));
+                value(entry.getValue());
+            }
+            return endObject();
+        } else if (value instanceof Iterable<?> items) {
+            beginArray();
+            for (Object item : items) {
+                value(item);
+            }
+            return endArray();
+        } else if (value instanceof Object[] items) {
+            beginArray();
+            for (Object item : items) {
+                value(item);
+            }
+            return endArray();
+        } else if (value instanceof int[] items) {
+            beginArray();
+            for (int item : items) {
+                value(item);
+            }
+            return endArray();
+        } else if (value instanceof long[] items) {
+            beginArray();
+            for (long item : items) {
+                value(item);
+            }
+            return endArray();
+        } else if (value instanceof double[] items) {
+            beginArray();
+            for (double item : items) {
+                value(item);
+            }
+            return endArray();
+        }
+        throw new IllegalArgumentException("Cannot write " + value.getClass().getName() + " as JSON");
+    }
+
+    /** Writes the record's components as an object, in declaration order. */
+    public JsonWriter value(Record value) {
+        if (value == null) {
+            return nullValue();
+        }
+        RecordJson.of(value.getClass()).write(value, this);
+        return this;
+    }
+
+    private JsonWriter open(char bracket) {
+        beforeValue();
+        if (depth == MAX_DEPTH) {
+            throw new IllegalStateException("JSON nested too deeply");
+        }
+        put((byte) bracket);
+        hasValue[++depth] = false;
+        inObject[depth] = bracket == '{';
+        return this;
+    }
+
+    private JsonWriter close(char bracket) {
+        if (depth == 0 || afterName || inObject[depth] != (bracket == '}')) {
+            throw new IllegalStateException("Unbalanced " + bracket);
+        }
+        depth--;
+        put((byte) bracket);
+        return this;
+    }
+
+    private void beforeValue() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (inObject[depth]) {
+            throw new IllegalStateException("Value without a name in an object");
+        }
+        if (hasValue[depth]) {
+            if (depth == 0) {
+                throw new IllegalStateException("Only one top level value");
+            }
+            put((byte) ',');
+        }
+        hasValue[depth] = true;
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            put(LONG_MIN, 0, LONG_MIN.length);
+            return;
+        }
+        ensure(20);
+        if (value < 0) {
+            buffer[size++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        int pos = size + digits;
+        do {
+            buffer[--pos] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        size += digits;
+    }
+
+    /**
+     * Writes the double as {@code digits / 10^d}, without allocating, when
+     * 1e-3 &lt;= |value| &lt; 1e17 (and 0). First looks for the smallest d
+     * whose exact division gives back the same double: both operands are
+     * exact below 2^53, so the division is correctly rounded and the text
+     * parses back to {@code value}. Otherwise the value is rounded to 17
+     * significant digits, which always reads back to the same double, or to
+     * 16 when those still fall inside its rounding interval. Products are
+     * rounded exactly, using an FMA for their rounding error.
+     */
+    private boolean writeDecimal(double value) {
+        if (value == 0) {
+            if (1 / value < 0) {
+                return false;
+            }
+            put((byte) '0');
+            return true;
+        }
+        double magnitude = Math.abs(value);
+        if (magnitude < 1e-3 || magnitude >= 1e17) {
+            return false;
+        }
+        // largest d keeping magnitude * 10^d below 2^53, estimated from the binary exponent
+        int maxD = Math.max(-1, Math.min(MAX_SCALE,
+                (int) ((52 - Math.getExponent(magnitude)) * 0.3010299956639812)));
+        while (maxD < MAX_SCALE && magnitude * POW10[maxD + 1] < 0x1p53) {
+            maxD++;
+        }
+        while (maxD >= 0 && magnitude * POW10[maxD] >= 0x1p53) {
+            maxD--;
+        }
+        if (maxD >= 0 && roundTrips(magnitude, maxD)) {
+            // computed values usually need every digit, decimal literals only a few
+            int low = maxD > 0 && !roundTrips(magnitude, maxD - 1) ? maxD : 0;
+            int high = maxD;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (roundTrips(magnitude, mid)) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            writeScaled(nearest(magnitude, low), low, value < 0);
+            return true;
+        }
+        // 17 significant digits: 1e16 <= magnitude * 10^d < 1e17
+        int d = maxD + 1;
+        while (d > 0 && magnitude * POW10[d] >= 1e17) {
+            d--;
+        }
+        while (d < MAX_SCALE && magnitude * POW10[d] < 1e16) {
+            d++;
+        }
+        double high = magnitude * POW10[d];
+        if (high < 1e16 || high >= 1e17) {
+            return false;
+        }
+        // high is an integer above 2^53; low is the exact rounding error of the product
+        double low = Math.fma(magnitude, POW10[d], -high);
+        long digits = (long) high + (long) Math.floor(low + 0.5);
+        // 16 digits are enough when they stay inside the interval that rounds to value
+        long shorter = (digits + 5) / 10;
+        double distance = Math.abs((double) (shorter * 10 - (long) high) - low);
+        double halfUlp = Math.ulp(magnitude) * 0.5 * POW10[d];
+        if ((Double.doubleToRawLongBits(magnitude) & 0xfffffffffffffL) == 0) {
+            // power of two: the interval below is half as wide
+            halfUlp *= 0.5;
+        }
+        // with a small margin, so rounding in halfUlp never accepts a digit too few
+        if (distance < halfUlp * (1 - 0x1p-40)) {
+            writeScaled(d == 0 ? shorter * 10 : shorter, Math.max(0, d - 1), value < 0);
+        } else {
+            writeScaled(digits, d, value < 0);
+        }
+        return true;
+    }
+
+    private static boolean roundTrips(double magnitude, int d) {
+        return nearest(magnitude, d) / POW10[d] == magnitude;
+    }
+
+    /** Integer nearest to the exact product {@code magnitude * 10^d}, which is below 2^53. */
+    private static long nearest(double magnitude, int d) {
+        double high = magnitude * POW10[d];
+        double low = Math.fma(magnitude, POW10[d], -high);
+        long n = (long) Math.rint(high);
+        double rest = (high - n) + low;
+        return rest > 0.5 ? n + 1 : rest < -0.5 ? n - 1 : n;
+    }
+
+    /** Writes {@code digits / 10^scale} in plain decimal notation without trailing zeros. */
+    private void writeScaled(long digits, int scale, boolean negative) {
+        while (scale > 0 && digits % 10 == 0) {
+            digits /= 10;
+            scale--;
+        }
+        if (negative) {
+            put((byte) '-');
+        }
+        if (scale == 0) {
+            writeLong(digits);
+            return;
+        }
+        int length = 1;
+        for (long rest = digits / 10; rest > 0; rest /= 10) {
+            length++;
+        }
+        int point = length - scale;
+        ensure(length + Math.max(0, -point) + 2);
+        if (point <= 0) {
+            buffer[size++] = '0';
+            buffer[size++] = '.';
+            for (int i = point; i < 0; i++) {
+                buffer[size++] = '0';
+            }
+            point = -1;
+        }
+        int end = size + length + (point > 0 ? 1 : 0);
+        int pos = end;
+        for (int i = 0; i < length; i++) {
+            if (point > 0 && i == scale) {
+                buffer[--pos] = '.';
+            }
+            buffer[--pos] = (byte) ('0' + digits % 10);
+            digits /= 10;
+        }
+        size = end;
+    }
+
+    private void writeAscii(String value) {
+        ensure(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            buffer[size++] = (byte) value.charAt(i);
+        }
+    }
+
+    /** Quoted and escaped, encoding UTF-16 to UTF-8 as it goes. */
+    private void writeString(String value) {
+        int length = value.length();
+        // worst case: every char escaped as a six byte \\u sequence
+        ensure(length * 6 + 2);
+        byte[] buf = buffer;
+        int pos = size;
+        buf[pos++] = '"';
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                buf[pos++] = (byte) c;
+            } else if (c < 0x80) {
+                buf[pos++] = '\\';
+                switch (c) {
+                    case '"' -> buf[pos++] = '"';
+                    case '\\' -> buf[pos++] = '\\';
+                    case '\n' -> buf[pos++] = 'n';
+                    case '\r' -> buf[pos++] = 'r';
+                    case '\t' -> buf[pos++] = 't';
+                    case '\b' -> buf[pos++] = 'b';
+                    case '\f' -> buf[pos++] = 'f';
+                    default -> {
+                        buf[pos++] = 'u';
+                        buf[pos++] = '0';
+                        buf[pos++] = '0';
+                        buf[pos++] = HEX[c >> 4];
+                        buf[pos++] = HEX[c & 0xf];
+                    }
+                }
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xc0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buf[pos++] = (byte) (0xf0 | (codePoint >> 18));
+                buf[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buf[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buf[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate: not encodable, escaped so the output stays valid UTF-8
+                buf[pos++] = '\\';
+                buf[pos++] = 'u';
+                buf[pos++] = HEX[c >> 12];
+                buf[pos++] = HEX[(c >> 8) & 0xf];
+                buf[pos++] = HEX[(c >> 4) & 0xf];
+                buf[pos++] = HEX[c & 0xf];
+            } else {
+                buf[pos++] = (byte) (0xe0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buf[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        buf[pos++] = '"';
+        size = pos;
+    }
+
+    private void put(byte b) {
+        ensure(1);
+        buffer[size++] = b;
+    }
+
+    private void put(byte[] bytes, int offset, int length) {
+        ensure(length);
+        System.arraycopy(bytes, offset, buffer, size, length);
+        size += length;
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+        }
+    }
+}
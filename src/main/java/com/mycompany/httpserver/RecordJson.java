@@ -0,0 +1,105 @@
+package com.mycompany.httpserver;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.RecordComponent;
+
+/**
+ * Writes one record type as a JSON object. Built once per type: component
+ * names are encoded to {@code "name":} bytes and each accessor becomes a
+ * method handle typed for its component, so primitives are written without
+ * boxing.
+ */
+final class RecordJson {
+
+    private static final ClassValue<RecordJson> CACHE = new ClassValue<>() {
+        @Override
+        protected RecordJson computeValue(Class<?> type) {
+            return new RecordJson(type);
+        }
+    };
+
+    private enum Kind {
+        INT, LONG, DOUBLE, BOOLEAN, STRING, OBJECT
+    }
+
+    private final byte[][] names;
+    private final Kind[] kinds;
+    private final MethodHandle[] accessors;
+
+    static RecordJson of(Class<?> type) {
+        return CACHE.get(type);
+    }
+
+    private RecordJson(Class<?> type) {
+        RecordComponent[] components = type.getRecordComponents();
+        if (components == null) {
+            throw new IllegalArgumentException(type.getName() + " is not a record");
+        }
+        names = new byte[components.length][];
+        kinds = new Kind[components.length];
+        accessors = new MethodHandle[components.length];
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        for (int i = 0; i < components.length; i++) {
+            JsonWriter name = new JsonWriter(32);
+            name.value(components[i].getName());
+            name.buffer[name.size++] = ':';
+            names[i] = name.toByteArray();
+
+            Class<?> component = components[i].getType();
+            Kind kind;
+            Class<?> handleType;
+            if (component == int.class || component == short.class || component == byte.class) {
+                kind = Kind.INT;
+                handleType = int.class;
+            } else if (component == long.class) {
+                kind = Kind.LONG;
+                handleType = long.class;
+            } else if (component == double.class || component == float.class) {
+                kind = Kind.DOUBLE;
+                handleType = double.class;
+            } else if (component == boolean.class) {
+                kind = Kind.BOOLEAN;
+                handleType = boolean.class;
+            } else if (component == String.class) {
+                kind = Kind.STRING;
+                handleType = String.class;
+            } else {
+                kind = Kind.OBJECT;
+                handleType = Object.class;
+            }
+            kinds[i] = kind;
+            try {
+                components[i].getAccessor().setAccessible(true);
+                accessors[i] = lookup.unreflect(components[i].getAccessor())
+                        .asType(MethodType.methodType(handleType, Object.class));
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                throw new IllegalArgumentException("Cannot access " + type.getName() + "." + components[i].getName(), e);
+            }
+        }
+    }
+
+    void write(Object value, JsonWriter out) {
+        out.beginObject();
+        try {
+            for (int i = 0; i < names.length; i++) {
+                out.rawName(names[i]);
+                MethodHandle accessor = accessors[i];
+                switch (kinds[i]) {
+                    case INT -> out.value((int) accessor.invokeExact(value));
+                    case LONG -> out.value((long) accessor.invokeExact(value));
+                    case DOUBLE -> out.value((double) accessor.invokeExact(value));
+                    case BOOLEAN -> out.value((boolean) accessor.invokeExact(value));
+                    case STRING -> out.value((String) accessor.invokeExact(value));
+                    case OBJECT -> out.value((Object) accessor.invokeExact(value));
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+        out.endObject();
+    }
+}
@@ -0,0 +1,741 @@
+package com.mycompany.httpserver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Forwards the requests under a path prefix to a group of upstream HTTP/1.1
+ * servers. Connections to each upstream are kept alive and pooled; requests
+ * go round-robin or to the upstream with the fewest requests in flight; an
+ * upstream that fails {@code maxFails} times in a row, serving requests or
+ * answering the periodic health check, is ejected until a health check
+ * succeeds again. Response bodies are relayed to the client as they arrive.
+ *
+ * Register one with {@link HttpServer#proxy(String, String...)} and
+ * configure it before the server starts.
+ */
+public class ReverseProxy {
+
+    public enum Balancing {
+        ROUND_ROBIN, LEAST_CONNECTIONS
+    }
+
+    /** Headers that describe one connection, not the message (RFC 9110, section 7.6.1). */
+    private static final Set<String> HOP_BY_HOP = Set.of("connection", "keep-alive", "proxy-connection",
+            "proxy-authenticate", "proxy-authorization", "te", "trailer", "transfer-encoding", "upgrade",
+            "http2-settings");
+    /** Requests that may be sent again after the upstream failed mid-exchange. */
+    private static final Set<String> IDEMPOTENT = Set.of("GET", "HEAD", "OPTIONS", "PUT", "DELETE", "TRACE");
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final int MAX_HEADERS = 100;
+    private static final byte[] BAD_REQUEST_BODY = "400 Bad Request".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BAD_GATEWAY_BODY = "502 Bad Gateway".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] UNAVAILABLE_BODY = "503 Service Unavailable".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TIMEOUT_BODY = "504 Gateway Timeout".getBytes(StandardCharsets.US_ASCII);
+    /** Body of a relayed HEAD answer: nothing to send, but it carries the upstream's length. */
+    private static final HttpResponse.StreamingBody NO_BODY = new HttpResponse.StreamingBody() {
+        @Override
+        public void writeTo(OutputStream out) {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    final String prefix;
+    private final String prefixSlash;
+    final Upstream[] upstreams;
+    private final AtomicInteger next = new AtomicInteger();
+
+    private Balancing balancing = Balancing.ROUND_ROBIN;
+    private boolean stripPrefix = true;
+    private String healthPath = "/";
+    private long healthIntervalMillis = 5_000;
+    private int maxFails = 3;
+    private int connectTimeoutMillis = 2_000;
+    private int readTimeoutMillis = 30_000;
+    private int maxIdle = 32;
+    private long idleTimeoutMillis = 4_000;
+    private volatile Thread healthChecker;
+
+    /**
+     * @param prefix path prefix served by the upstreams, e.g. {@code /api}
+     * @param upstreams {@code host:port} of each upstream server
+     */
+    public ReverseProxy(String prefix, String... upstreams) {
+        if (!prefix.startsWith("/")) {
+            throw new IllegalArgumentException("Proxy prefix must start with '/': " + prefix);
+        }
+        if (upstreams.length == 0) {
+            throw new IllegalArgumentException("Proxy " + prefix + " has no upstreams");
+        }
+        this.prefix = prefix.endsWith("/") ? prefix.substring(0, prefix.length() - 1) : prefix;
+        this.prefixSlash = this.prefix + "/";
+        this.upstreams = new Upstream[upstreams.length];
+        for (int i = 0; i < upstreams.length; i++) {
+            this.upstreams[i] = Upstream.parse(upstreams[i]);
+        }
+    }
+
+    /**
+     * Builds a proxy from a {@code --proxy=/prefix=host:port,host:port} value
+     * and the {@code --proxy-*} options.
+     */
+    static ReverseProxy fromConfig(String spec, ServerConfig config) {
+        int split = spec.indexOf('=');
+        if (split < 0) {
+            throw new IllegalArgumentException("Invalid value for --proxy: " + spec);
+        }
+        return new ReverseProxy(spec.substring(0, split), spec.substring(split + 1).split(","))
+                .balancing(config.proxyBalancing)
+                .healthCheck(config.proxyHealthPath, config.proxyHealthIntervalMillis)
+                .maxFails(config.proxyMaxFails)
+                .timeouts(config.proxyConnectTimeoutMillis, config.proxyReadTimeoutMillis)
+                .pool(config.proxyPoolSize, config.proxyIdleTimeoutMillis);
+    }
+
+    public ReverseProxy balancing(Balancing balancing) {
+        this.balancing = balancing;
+        return this;
+    }
+
+    /** Whether the prefix is removed from the path sent upstream; true by default. */
+    public ReverseProxy stripPrefix(boolean stripPrefix) {
+        this.stripPrefix = stripPrefix;
+        return this;
+    }
+
+    /** An upstream is healthy while {@code GET path} answers below 500. */
+    public ReverseProxy healthCheck(String path, long intervalMillis) {
+        this.healthPath = path;
+        this.healthIntervalMillis = intervalMillis;
+        return this;
+    }
+
+    /** Consecutive failures that eject an upstream. */
+    public ReverseProxy maxFails(int maxFails) {
+        this.maxFails = Math.max(1, maxFails);
+        return this;
+    }
+
+    public ReverseProxy timeouts(int connectMillis, int readMillis) {
+        this.connectTimeoutMillis = connectMillis;
+        this.readTimeoutMillis = readMillis;
+        return this;
+    }
+
+    /**
+     * Idle connections kept per upstream, and how long they are reused.
+     * Keep the timeout below the upstream's own keep-alive timeout.
+     */
+    public ReverseProxy pool(int maxIdle, long idleTimeoutMillis) {
+        this.maxIdle = maxIdle;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        return this;
+    }
+
+    boolean matches(String path) {
+        return prefix.isEmpty() || path.equals(prefix) || path.startsWith(prefixSlash);
+    }
+
+    /** Starts the health checks. */
+    synchronized void start() {
+        if (healthChecker == null) {
+            healthChecker = Thread.ofVirtual().name("proxy-health" + prefix).start(this::checkLoop);
+        }
+    }
+
+    /** Stops the health checks and closes the idle connections. */
+    synchronized void stop() {
+        if (healthChecker != null) {
+            healthChecker.interrupt();
+            healthChecker = null;
+        }
+        for (Upstream upstream : upstreams) {
+            upstream.closeIdle();
+        }
+    }
+
+    /**
+     * Picks a healthy upstream other than {@code exclude}, or null when
+     * there is none.
+     */
+    Upstream choose(Upstream exclude) {
+        int start = Math.floorMod(next.getAndIncrement(), upstreams.length);
+        Upstream best = null;
+        for (int i = 0; i < upstreams.length; i++) {
+            Upstream upstream = upstreams[(start + i) % upstreams.length];
+            if (upstream == exclude || !upstream.healthy) {
+                continue;
+            }
+            if (balancing == Balancing.ROUND_ROBIN) {
+                return upstream;
+            }
+            if (best == null || upstream.active.get() < best.active.get()) {
+                best = upstream;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Forwards the request and fills the response with the upstream's
+     * status, headers and a body streamed from the upstream connection.
+     * Requests that could not reach an upstream are sent to another one.
+     */
+    void handle(HttpRequest req, HttpResponse res) {
+        if (!serializable(req)) {
+            error(res, HttpStatus.BAD_REQUEST, BAD_REQUEST_BODY);
+            return;
+        }
+        Upstream upstream = choose(null);
+        if (upstream == null) {
+            error(res, HttpStatus.SERVICE_UNAVAILABLE, UNAVAILABLE_BODY);
+            return;
+        }
+        boolean idempotent = IDEMPOTENT.contains(req.method);
+        boolean failover = true;
+        while (true) {
+            try {
+                forward(upstream, req, res, idempotent);
+                return;
+            } catch (StaleConnectionException e) {
+                // the upstream closed its idle connections; try again on a new one
+                upstream.closeIdle();
+            } catch (SocketTimeoutException e) {
+                failed(upstream, e);
+                error(res, HttpStatus.GATEWAY_TIMEOUT, TIMEOUT_BODY);
+                return;
+            } catch (IOException e) {
+                failed(upstream, e);
+                Upstream other = failover && (idempotent || e instanceof ConnectException) ? choose(upstream) : null;
+                if (other == null) {
+                    error(res, HttpStatus.BAD_GATEWAY, BAD_GATEWAY_BODY);
+                    return;
+                }
+                failover = false;
+                upstream = other;
+            }
+        }
+    }
+
+    private void forward(Upstream upstream, HttpRequest req, HttpResponse res, boolean idempotent) throws IOException {
+        Connection connection = acquire(upstream);
+        upstream.active.incrementAndGet();
+        boolean handedOff = false;
+        try {
+            try {
+                connection.out.write(requestHead(req, upstream));
+                connection.out.write(req.body);
+                connection.out.flush();
+            } catch (IOException e) {
+                if (connection.reused) {
+                    throw new StaleConnectionException(e);
+                }
+                throw e;
+            }
+
+            String statusLine;
+            List<String> headers = new ArrayList<>();
+            try {
+                statusLine = readHead(connection.in, headers);
+            } catch (SocketTimeoutException e) {
+                throw e;
+            } catch (IOException e) {
+                if (connection.reused && idempotent) {
+                    throw new StaleConnectionException(e);
+                }
+                throw e;
+            }
+            while (statusCode(statusLine) < 200) {
+                // interim responses such as 100 Continue
+                headers.clear();
+                statusLine = readHead(connection.in, headers);
+            }
+            int code = statusCode(statusLine);
+
+            long length = -1;
+            boolean chunked = false;
+            boolean keepAlive = statusLine.startsWith("HTTP/1.1");
+            String connectionOptions = null;
+            for (int i = 0; i < headers.size(); i += 2) {
+                String value = headers.get(i + 1);
+                switch (headers.get(i).toLowerCase(Locale.ROOT)) {
+                    case "content-length" -> length = parseLength(value);
+                    case "transfer-encoding" -> chunked = value.toLowerCase(Locale.ROOT).endsWith("chunked");
+                    case "connection" -> {
+                        connectionOptions = value;
+                        keepAlive = listed(value, "keep-alive") || keepAlive && !listed(value, "close");
+                    }
+                    default -> {
+                    }
+                }
+            }
+
+            // any well-formed status is relayed, registered or not
+            res.setStatus(code, statusLine.length() > 13 ? statusLine.substring(13) : "");
+            for (int i = 0; i < headers.size(); i += 2) {
+                String name = headers.get(i).toLowerCase(Locale.ROOT);
+                if (HOP_BY_HOP.contains(name) || name.equals("content-length") || listed(connectionOptions, name)) {
+                    continue;
+                }
+                try {
+                    HttpHeader header = HttpHeader.of(headers.get(i), headers.get(i + 1));
+                    if (name.equals("content-type")) {
+                        res.setContentType(header);
+                    } else {
+                        res.addHeader(header);
+                    }
+                } catch (IllegalArgumentException e) {
+                    // not representable as a header line; drop it
+                }
+            }
+            succeeded(upstream);
+
+            boolean noBody = req.method.equals("HEAD") || code == 204 || code == 304;
+            if (noBody) {
+                finish(upstream, connection, keepAlive);
+                if (req.method.equals("HEAD")) {
+                    res.setBody(NO_BODY, chunked ? -1 : length);
+                }
+            } else {
+                long bodyLength = chunked ? -1 : length;
+                boolean reusable = keepAlive && (chunked || length >= 0);
+                res.setBody(new UpstreamBody(upstream, connection, chunked, bodyLength, reusable), bodyLength);
+            }
+            handedOff = true;
+        } finally {
+            if (!handedOff) {
+                upstream.active.decrementAndGet();
+                connection.close();
+            }
+        }
+    }
+
+    /** Whether {@code name} is one of the comma separated options of a Connection header. */
+    private static boolean listed(String connectionOptions, String name) {
+        if (connectionOptions == null) {
+            return false;
+        }
+        for (String option : connectionOptions.split(",")) {
+            if (option.trim().equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether the method and headers can be written as an HTTP/1.1 head as
+     * they are. A CR, LF or NUL (possible in HTTP/2 fields) would let the
+     * client add its own lines to a request on a pooled upstream connection.
+     */
+    private static boolean serializable(HttpRequest req) {
+        if (!HttpHeader.isToken(req.method)) {
+            return false;
+        }
+        for (Map.Entry<String, String> header : req.headers.entrySet()) {
+            if (!HttpHeader.isToken(header.getKey()) || !HttpHeader.isFieldValue(header.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Request line and headers as sent upstream. */
+    private byte[] requestHead(HttpRequest req, Upstream upstream) {
+        String path = req.requestUri.getRawPath();
+        if (stripPrefix && !prefix.isEmpty()) {
+            path = path.length() == prefix.length() ? "/" : path.substring(prefix.length());
+        }
+        StringBuilder head = new StringBuilder(256);
+        head.append(req.method).append(' ').append(path);
+        if (req.requestUri.getRawQuery() != null) {
+            head.append('?').append(req.requestUri.getRawQuery());
+        }
+        head.append(" HTTP/1.1\r\n");
+
+        String host = req.getHeader("host");
+        String connectionOptions = req.getHeader("connection");
+        for (Map.Entry<String, String> header : req.headers.entrySet()) {
+            String name = header.getKey();
+            switch (name) {
+                case "host", "content-length", "traceparent", "x-forwarded-for", "x-forwarded-host",
+                        "x-forwarded-proto" -> {
+                    continue;
+                }
+                default -> {
+                    if (HOP_BY_HOP.contains(name) || listed(connectionOptions, name)) {
+                        continue;
+                    }
+                }
+            }
+            head.append(name).append(": ").append(header.getValue()).append("\r\n");
+        }
+        head.append("Host: ").append(host == null ? upstream.hostHeader : host).append("\r\n");
+
+        String forwardedFor = req.getHeader("x-forwarded-for");
+        if (req.remoteAddress != null) {
+            forwardedFor = forwardedFor == null ? req.remoteAddress : forwardedFor + ", " + req.remoteAddress;
+        }
+        if (forwardedFor != null) {
+            head.append("X-Forwarded-For: ").append(forwardedFor).append("\r\n");
+        }
+        if (host != null) {
+            head.append("X-Forwarded-Host: ").append(host).append("\r\n");
+        }
+        head.append("X-Forwarded-Proto: http\r\n");
+
+        String traceparent = req.traceContext != null ? req.traceContext.traceparent() : req.getHeader("traceparent");
+        if (traceparent != null) {
+            head.append("traceparent: ").append(traceparent).append("\r\n");
+        }
+        if (req.body.length > 0 || req.method.equals("POST") || req.method.equals("PUT")
+                || req.method.equals("PATCH")) {
+            head.append("Content-Length: ").append(req.body.length).append("\r\n");
+        }
+        head.append("\r\n");
+        return head.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /** Reads a status line and its headers, adding each header's name followed by its value. */
+    private static String readHead(InputStream in, List<String> headers) throws IOException {
+        String statusLine = readLine(in);
+        if (statusLine == null) {
+            throw new EOFException("Upstream closed the connection");
+        }
+        if (!statusLine.startsWith("HTTP/1.") || statusLine.length() < 12) {
+            throw new IOException("Malformed upstream status line: " + statusLine);
+        }
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                throw new IOException("Malformed upstream header: " + line);
+            }
+            if (headers.size() >= MAX_HEADERS * 2) {
+                throw new IOException("Too many upstream headers");
+            }
+            headers.add(line.substring(0, colon).trim());
+            headers.add(line.substring(colon + 1).trim());
+        }
+        if (line == null) {
+            throw new EOFException("Upstream closed the connection");
+        }
+        return statusLine;
+    }
+
+    /** The three digit code of a status line {@link #readHead} accepted: {@code HTTP/1.x NNN reason}. */
+    private static int statusCode(String statusLine) throws IOException {
+        if (statusLine.charAt(8) != ' ' || statusLine.length() > 12 && statusLine.charAt(12) != ' ') {
+            throw new IOException("Malformed upstream status line: " + statusLine);
+        }
+        int code = 0;
+        for (int i = 9; i < 12; i++) {
+            char c = statusLine.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IOException("Malformed upstream status line: " + statusLine);
+            }
+            code = code * 10 + c - '0';
+        }
+        if (code < 100) {
+            throw new IOException("Malformed upstream status line: " + statusLine);
+        }
+        return code;
+    }
+
+    private static long parseLength(String value) throws IOException {
+        try {
+            long length = Long.parseLong(value);
+            if (length < 0) {
+                throw new IOException("Negative upstream Content-Length");
+            }
+            return length;
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid upstream Content-Length: " + value, e);
+        }
+    }
+
+    /** Reads a CRLF (or bare LF) terminated line; returns null on EOF before any byte. */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                if (line.isEmpty()) {
+                    return null;
+                }
+                throw new EOFException("Upstream closed the connection mid-line");
+            }
+            if (line.length() >= MAX_LINE_LENGTH) {
+                throw new IOException("Upstream line too long");
+            }
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+
+    private static void error(HttpResponse res, HttpStatus status, byte[] body) {
+        res.setStatus(status);
+        res.setContentType(HttpHeader.CONTENT_TYPE_TEXT);
+        res.setBody(body);
+    }
+
+    /** Takes the most recently used idle connection, or opens a new one. */
+    private Connection acquire(Upstream upstream) throws IOException {
+        long now = System.currentTimeMillis();
+        Connection connection;
+        while ((connection = upstream.idle.pollFirst()) != null) {
+            if (now - connection.idleSince < idleTimeoutMillis) {
+                connection.reused = true;
+                return connection;
+            }
+            connection.close();
+        }
+        return connect(upstream, readTimeoutMillis);
+    }
+
+    private Connection connect(Upstream upstream, int readTimeout) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(upstream.host, upstream.port), connectTimeoutMillis);
+            socket.setSoTimeout(readTimeout);
+            return new Connection(socket);
+        } catch (SocketTimeoutException e) {
+            socket.close();
+            throw new ConnectException("Connect to " + upstream + " timed out");
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /** Called once the exchange is over: pools the connection or closes it. */
+    private void finish(Upstream upstream, Connection connection, boolean reusable) {
+        upstream.active.decrementAndGet();
+        if (reusable && upstream.healthy && upstream.idle.size() < maxIdle) {
+            connection.idleSince = System.currentTimeMillis();
+            upstream.idle.offerFirst(connection);
+        } else {
+            connection.close();
+        }
+    }
+
+    private void succeeded(Upstream upstream) {
+        upstream.failures.set(0);
+    }
+
+    private void failed(Upstream upstream, IOException cause) {
+        if (upstream.failures.incrementAndGet() >= maxFails && upstream.healthy) {
+            upstream.healthy = false;
+            upstream.closeIdle();
+            System.err.println("Upstream " + upstream + " ejected from " + prefix + ": " + cause);
+        }
+    }
+
+    private void checkLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(healthIntervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (Upstream upstream : upstreams) {
+                check(upstream);
+                pruneIdle(upstream);
+            }
+        }
+    }
+
+    /** Sends {@code GET healthPath} on a connection of its own. */
+    void check(Upstream upstream) {
+        try (Connection connection = connect(upstream, connectTimeoutMillis)) {
+            connection.out.write(("GET " + healthPath + " HTTP/1.1\r\nHost: " + upstream.hostHeader
+                    + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            connection.out.flush();
+            String statusLine = readHead(connection.in, new ArrayList<>());
+            int code = statusCode(statusLine);
+            if (code >= 500) {
+                throw new IOException("Health check answered " + code);
+            }
+            succeeded(upstream);
+            if (!upstream.healthy) {
+                upstream.healthy = true;
+                System.out.println("Upstream " + upstream + " is back in " + prefix);
+            }
+        } catch (IOException e) {
+            failed(upstream, e);
+        }
+    }
+
+    /** Closes pooled connections the upstream is about to time out. */
+    private void pruneIdle(Upstream upstream) {
+        long now = System.currentTimeMillis();
+        Connection oldest;
+        while ((oldest = upstream.idle.peekLast()) != null && now - oldest.idleSince >= idleTimeoutMillis) {
+            if (upstream.idle.removeLastOccurrence(oldest)) {
+                oldest.close();
+            }
+        }
+    }
+
+    static final class Upstream {
+
+        final String host;
+        final int port;
+        final String hostHeader;
+        /** Requests in flight, including responses still streaming. */
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        /** Most recently used first. */
+        final ConcurrentLinkedDeque<Connection> idle = new ConcurrentLinkedDeque<>();
+        volatile boolean healthy = true;
+
+        Upstream(String host, int port) {
+            this.host = host;
+            this.port = port;
+            this.hostHeader = host + ":" + port;
+        }
+
+        static Upstream parse(String address) {
+            String hostPort = address.trim();
+            if (hostPort.startsWith("http://")) {
+                hostPort = hostPort.substring("http://".length());
+            }
+            if (hostPort.endsWith("/")) {
+                hostPort = hostPort.substring(0, hostPort.length() - 1);
+            }
+            int colon = hostPort.lastIndexOf(':');
+            try {
+                if (colon <= 0) {
+                    return new Upstream(hostPort, 80);
+                }
+                return new Upstream(hostPort.substring(0, colon), Integer.parseInt(hostPort.substring(colon + 1)));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid upstream: " + address, e);
+            }
+        }
+
+        void closeIdle() {
+            Connection connection;
+            while ((connection = idle.pollFirst()) != null) {
+                connection.close();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return hostHeader;
+        }
+    }
+
+    static final class Connection implements Closeable {
+
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+        /** Copy buffer for the bodies relayed over this connection. */
+        final byte[] buffer = new byte[8192];
+        long idleSince;
+        boolean reused;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                System.getLogger(ReverseProxy.class.getName()).log(System.Logger.Level.ERROR, (String) null, e);
+            }
+        }
+    }
+
+    /** Relays the upstream body; the connection is pooled again only if it was read to the end. */
+    private final class UpstreamBody implements HttpResponse.StreamingBody {
+
+        private final Upstream upstream;
+        private final Connection connection;
+        private final boolean chunked;
+        private final long length;
+        private final boolean reusable;
+        private boolean complete;
+        private boolean closed;
+
+        UpstreamBody(Upstream upstream, Connection connection, boolean chunked, long length, boolean reusable) {
+            this.upstream = upstream;
+            this.connection = connection;
+            this.chunked = chunked;
+            this.length = length;
+            this.reusable = reusable;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            InputStream in = chunked ? new ChunkedInputStream(connection.in) : connection.in;
+            byte[] buffer = connection.buffer;
+            long remaining = length;
+            while (remaining != 0) {
+                int n = in.read(buffer, 0, remaining < 0 ? buffer.length : (int) Math.min(buffer.length, remaining));
+                if (n == -1) {
+                    if (length >= 0) {
+                        throw new EOFException("Upstream body ended early");
+                    }
+                    break;
+                }
+                out.write(buffer, 0, n);
+                if (remaining > 0) {
+                    remaining -= n;
+                }
+                if (connection.in.available() == 0) {
+                    // nothing more buffered yet: let the client see what arrived
+                    out.flush();
+                }
+            }
+            complete = true;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                finish(upstream, connection, complete && reusable);
+            }
+        }
+    }
+
+    /** A pooled connection failed before the upstream could have acted on the request. */
+    private static final class StaleConnectionException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        StaleConnectionException(IOException cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.mycompany.httpserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Server settings read from the command line arguments passed to
+ * {@link HttpServer#startServer(String[])}, in the form {@code --name=value}.
+ * Times are in milliseconds.
+ */
+public class ServerConfig {
+
+    int port = 35000;
+    String bindAddress = null;
+    int backlog = 50;
+    int acceptors = 1;
+    boolean reusePort = true;
+    boolean traceContext = false;
+    /** Prints every request line and header; synchronizes on System.out per line. */
+    boolean logRequests = true;
+
+    long headerReadTimeoutMillis = 10_000;
+    long bodyReadTimeoutMillis = 30_000;
+    long writeTimeoutMillis = 30_000;
+    long keepAliveTimeoutMillis = 5_000;
+    long minDataRateBytesPerSecond = 240;
+    long minDataRateGraceMillis = 5_000;
+    int socketTimeoutMillis = 120_000;
+    /** Largest request body read into memory, for HTTP/1.1 and HTTP/2. */
+    int maxBodySize = 8 * 1024 * 1024;
+    long timerTickMillis = 100;
+    int timerTicksPerWheel = 512;
+
+    /** {@code /prefix=host:port,host:port}, one per --proxy option. */
+    List<String> proxies = new ArrayList<>();
+    ReverseProxy.Balancing proxyBalancing = ReverseProxy.Balancing.ROUND_ROBIN;
+    String proxyHealthPath = "/";
+    long proxyHealthIntervalMillis = 5_000;
+    int proxyMaxFails = 3;
+    int proxyConnectTimeoutMillis = 2_000;
+    int proxyReadTimeoutMillis = 30_000;
+    int proxyPoolSize = 32;
+    long proxyIdleTimeoutMillis = 4_000;
+
+    public static ServerConfig fromArgs(String[] args) {
+        ServerConfig config = new ServerConfig();
+        if (args == null) {
+            return config;
+        }
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                System.err.println("Ignoring argument: " + arg);
+                continue;
+            }
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            try {
+                config.set(name, value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value for --" + name + ": " + value, e);
+            }
+        }
+        return config;
+    }
+
+    private void set(String name, String value) {
+        switch (name) {
+            case "port" -> port = Integer.parseInt(value);
+            case "bind" -> bindAddress = value.isEmpty() ? null : value;
+            case "backlog" -> backlog = Integer.parseInt(value);
+            case "acceptors" -> acceptors = Math.max(1, Integer.parseInt(value));
+            case "reuse-port" -> reusePort = Boolean.parseBoolean(value);
+            case "trace-context" -> traceContext = Boolean.parseBoolean(value);
+            case "log-requests" -> logRequests = Boolean.parseBoolean(value);
+            case "header-timeout" -> headerReadTimeoutMillis = Long.parseLong(value);
+            case "body-timeout" -> bodyReadTimeoutMillis = Long.parseLong(value);
+            case "write-timeout" -> writeTimeoutMillis = Long.parseLong(value);
+            case "keep-alive-timeout" -> keepAliveTimeoutMillis = Long.parseLong(value);
+            case "min-data-rate" -> minDataRateBytesPerSecond = Long.parseLong(value);
+            case "min-data-rate-grace" -> minDataRateGraceMillis = Long.parseLong(value);
+            case "socket-timeout" -> socketTimeoutMillis = Integer.parseInt(value);
+            case "max-body-size" -> maxBodySize = Math.min(Integer.parseInt(value), Integer.MAX_VALUE - 8);
+            case "timer-tick" -> timerTickMillis = Long.parseLong(value);
+            case "timer-wheel-size" -> timerTicksPerWheel = Integer.parseInt(value);
+            case "proxy" -> proxies.add(value);
+            case "proxy-balance" -> proxyBalancing = switch (value) {
+                case "round-robin" -> ReverseProxy.Balancing.ROUND_ROBIN;
+                case "least-connections" -> ReverseProxy.Balancing.LEAST_CONNECTIONS;
+                default -> throw new IllegalArgumentException("Invalid value for --proxy-balance: " + value);
+            };
+            case "proxy-health-path" -> proxyHealthPath = value;
+            case "proxy-health-interval" -> proxyHealthIntervalMillis = Long.parseLong(value);
+            case "proxy-max-fails" -> proxyMaxFails = Integer.parseInt(value);
+            case "proxy-connect-timeout" -> proxyConnectTimeoutMillis = Integer.parseInt(value);
+            case "proxy-read-timeout" -> proxyReadTimeoutMillis = Integer.parseInt(value);
+            case "proxy-pool-size" -> proxyPoolSize = Integer.parseInt(value);
+            case "proxy-idle-timeout" -> proxyIdleTimeoutMillis = Long.parseLong(value);
+            default -> System.err.println("Unknown option: --" + name);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.mycompany.httpserver;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder events for each stage of a request. They are disabled
+ * unless a recording enables them (see {@code jfr/httpserver.jfc}); callers
+ * follow the usual pattern of {@code begin()} and filling fields only after
+ * {@code shouldCommit()}, so a disabled event costs a branch.
+ */
+final class ServerEvents {
+
+    private static final String CATEGORY = "HTTP Server";
+
+    private ServerEvents() {
+    }
+
+    static String traceId(HttpRequest req) {
+        return req.traceContext == null ? null : req.traceContext.traceId;
+    }
+
+    static String spanId(HttpRequest req) {
+        return req.traceContext == null ? null : req.traceContext.spanId;
+    }
+
+    @Name("com.mycompany.httpserver.Accept")
+    @Label("Accept")
+    @Description("From accept() returning until the connection thread starts")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static final class Accept extends Event {
+
+        @Label("Remote Address")
+        String remoteAddress;
+    }
+
+    @Name("com.mycompany.httpserver.Parse")
+    @Label("Parse")
+    @Description("Reading the request line, headers and body, from its first byte")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static final class Parse extends Event {
+
+        @Label("Method")
+        String method;
+
+        @Label("Route")
+        String route;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Trace Id")
+        String traceId;
+
+        @Label("Span Id")
+        String spanId;
+    }
+
+    @Name("com.mycompany.httpserver.Route")
+    @Label("Route")
+    @Description("Filter chain and router, including the handler")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static final class Route extends Event {
+
+        @Label("Route")
+        String route;
+
+        @Label("Status")
+        int status;
+
+        @Label("Trace Id")
+        String traceId;
+
+        @Label("Span Id")
+        String spanId;
+    }
+
+    @Name("com.mycompany.httpserver.Handler")
+    @Label("Handler")
+    @Description("Static file handler or Service lambda")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static final class Handler extends Event {
+
+        @Label("Route")
+        String route;
+
+        @Label("Handler")
+        String handler;
+
+        @Label("Status")
+        int status;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Trace Id")
+        String traceId;
+
+        @Label("Span Id")
+        String spanId;
+    }
+
+    @Name("com.mycompany.httpserver.Write")
+    @Label("Write")
+    @Description("Writing and flushing an HTTP/1.1 response")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static final class Write extends Event {
+
+        @Label("Route")
+        String route;
+
+        @Label("Status")
+        int status;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Trace Id")
+        String traceId;
+
+        @Label("Span Id")
+        String spanId;
+    }
+}
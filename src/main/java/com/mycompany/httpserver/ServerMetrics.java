@@ -0,0 +1,73 @@
+package com.mycompany.httpserver;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process wide counters for the server.
+ */
+public class ServerMetrics {
+
+    public enum TimeoutKind {
+        HEADER_READ, BODY_READ, WRITE, KEEP_ALIVE_IDLE, MIN_DATA_RATE
+    }
+
+    private static final LongAdder connectionsAccepted = new LongAdder();
+    private static final LongAdder connectionsClosed = new LongAdder();
+    private static final LongAdder requests = new LongAdder();
+    private static final Map<TimeoutKind, LongAdder> timeouts = new EnumMap<>(TimeoutKind.class);
+
+    static {
+        for (TimeoutKind kind : TimeoutKind.values()) {
+            timeouts.put(kind, new LongAdder());
+        }
+    }
+
+    private ServerMetrics() {
+    }
+
+    static void connectionAccepted() {
+        connectionsAccepted.increment();
+    }
+
+    static void connectionClosed() {
+        connectionsClosed.increment();
+    }
+
+    static void requestServed() {
+        requests.increment();
+    }
+
+    static void timeoutExpired(TimeoutKind kind) {
+        timeouts.get(kind).increment();
+    }
+
+    public static long getConnectionsAccepted() {
+        return connectionsAccepted.sum();
+    }
+
+    public static long getConnectionsClosed() {
+        return connectionsClosed.sum();
+    }
+
+    public static long getRequests() {
+        return requests.sum();
+    }
+
+    public static long getTimeouts(TimeoutKind kind) {
+        return timeouts.get(kind).sum();
+    }
+
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        values.put("connectionsAccepted", getConnectionsAccepted());
+        values.put("connectionsClosed", getConnectionsClosed());
+        values.put("requests", getRequests());
+        for (TimeoutKind kind : TimeoutKind.values()) {
+            values.put("timeouts." + kind.name().toLowerCase(), getTimeouts(kind));
+        }
+        return values;
+    }
+}
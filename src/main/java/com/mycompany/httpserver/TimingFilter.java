@@ -0,0 +1,17 @@
+package com.mycompany.httpserver;
+
+/**
+ * Reports the time spent in the rest of the chain as
+ * {@code Server-Timing: app;dur=<milliseconds>}, with microsecond precision.
+ */
+public class TimingFilter implements Filter {
+
+    private static final HttpHeader SERVER_TIMING = HttpHeader.of("Server-Timing", "app;dur=");
+
+    @Override
+    public void doFilter(HttpRequest req, HttpResponse res, FilterChain chain) {
+        long start = System.nanoTime();
+        chain.next(req, res);
+        res.addHeader(SERVER_TIMING, (System.nanoTime() - start) / 1000, 3);
+    }
+}
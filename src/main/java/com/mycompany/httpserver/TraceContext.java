@@ -0,0 +1,88 @@
+package com.mycompany.httpserver;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * W3C Trace Context ({@code traceparent}) of the request being served. The
+ * server joins the caller's trace, or starts one, with a new span id of its
+ * own; {@link #traceparent()} is the value to send to downstream services.
+ */
+public final class TraceContext {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    final String traceId;
+    final String spanId;
+    /** Span id of the caller, null when the trace started here. */
+    final String parentId;
+    final String flags;
+
+    private TraceContext(String traceId, String spanId, String parentId, String flags) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentId = parentId;
+        this.flags = flags;
+    }
+
+    /** Continues the trace of an incoming {@code traceparent}, or starts a sampled one. */
+    static TraceContext start(String traceparent) {
+        if (isValid(traceparent)) {
+            return new TraceContext(traceparent.substring(3, 35), randomHex(8), traceparent.substring(36, 52),
+                    traceparent.substring(53, 55));
+        }
+        return new TraceContext(randomHex(16), randomHex(8), null, "01");
+    }
+
+    /** Version 00 format: {@code 00-<32 hex trace id>-<16 hex parent id>-<2 hex flags>}. */
+    static boolean isValid(String traceparent) {
+        if (traceparent == null || traceparent.length() != 55 || !traceparent.startsWith("00-")
+                || traceparent.charAt(35) != '-' || traceparent.charAt(52) != '-') {
+            return false;
+        }
+        for (int i = 3; i < 55; i++) {
+            char c = traceparent.charAt(i);
+            if (i != 35 && i != 52 && !((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return false;
+            }
+        }
+        return !isZero(traceparent.substring(3, 35)) && !isZero(traceparent.substring(36, 52));
+    }
+
+    private static boolean isZero(String hex) {
+        for (int i = 0; i < hex.length(); i++) {
+            if (hex.charAt(i) != '0') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String randomHex(int bytes) {
+        char[] out = new char[bytes * 2];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < out.length; i += 2) {
+            int b = random.nextInt(256);
+            out[i] = HEX[b >> 4];
+            out[i + 1] = HEX[b & 0xf];
+        }
+        String value = new String(out);
+        return isZero(value) ? randomHex(bytes) : value;
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getSpanId() {
+        return spanId;
+    }
+
+    public String getParentId() {
+        return parentId;
+    }
+
+    /** {@code traceparent} header for calls made while serving this request. */
+    public String traceparent() {
+        return "00-" + traceId + "-" + spanId + "-" + flags;
+    }
+}
@@ -10,9 +10,13 @@ import java.net.URISyntaxException;
 public class WebAplication {
      public static void main(String[] args) throws IOException, URISyntaxException {
         staticfiles("/webroot/public");
-        get("/hello", (req, resp) -> "Hello " + req.getValue("name"));
+        get("/hello", (req, resp) -> {
+            resp.json().beginObject().name("message").value("Hello " + req.getValue("name")).endObject();
+            return null;
+        });
         get("/pi", (req, resp) -> {
-            return String.valueOf(Math.PI); 
+            resp.json().beginObject().name("pi").value(Math.PI).endObject();
+            return null;
         });
         
         startServer(args);
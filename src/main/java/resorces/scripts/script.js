@@ -2,7 +2,7 @@ function loadGetMsg() {
     let nameVar = document.getElementById("name").value;
     const xhttp = new XMLHttpRequest();
     xhttp.onload = function () {
-        document.getElementById("getrespmsg").innerHTML = this.responseText;
+        document.getElementById("getrespmsg").innerHTML = JSON.parse(this.responseText).message;
     };
     xhttp.open("GET", "/app/hello?name=" + nameVar);
     xhttp.send();
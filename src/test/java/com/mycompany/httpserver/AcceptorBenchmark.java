@@ -0,0 +1,81 @@
+package com.mycompany.httpserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Mide conexiones por segundo con 1..N hilos aceptadores.
+ *
+ * Para cada cantidad de aceptadores levanta el servidor en un puerto nuevo,
+ * abre conexiones cortas (conectar, pedir un recurso inexistente, leer hasta
+ * EOF, cerrar) desde varios hilos cliente durante la ventana de medición e
+ * imprime la tasa obtenida. El registro de peticiones se desactiva
+ * (--log-requests=false): cada línea impresa toma el candado de System.out y
+ * la medición reflejaría esa contención en lugar de la aceptación.
+ *
+ * Ejecutar con:
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=com.mycompany.httpserver.AcceptorBenchmark -Dexec.args="8 16 5"
+ * (aceptadores máximos, hilos cliente, segundos por medición)
+ */
+public class AcceptorBenchmark {
+
+    private static final byte[] REQUEST = "GET /missing.txt HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    public static void main(String[] args) throws Exception {
+        int maxAcceptors = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 2 * Runtime.getRuntime().availableProcessors();
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        System.out.printf("%-10s %-12s %-10s%n", "acceptors", "conn/s", "errors");
+        for (int acceptors = 1; acceptors <= maxAcceptors; acceptors *= 2) {
+            TestServer server = TestServer.start("--acceptors=" + acceptors, "--backlog=4096", "--log-requests=false");
+            try {
+                // calentamiento
+                run(server.port(), clients, 1);
+                long[] result = run(server.port(), clients, seconds);
+                System.out.printf("%-10d %-12d %-10d%n", acceptors, result[0] / seconds, result[1]);
+            } finally {
+                HttpServer.stopServer();
+                server.thread().join(5000);
+            }
+        }
+    }
+
+    private static long[] run(int port, int clients, int seconds) throws InterruptedException {
+        LongAdder completed = new LongAdder();
+        LongAdder errors = new LongAdder();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        CountDownLatch done = new CountDownLatch(clients);
+        for (int i = 0; i < clients; i++) {
+            Thread client = new Thread(() -> {
+                byte[] buffer = new byte[1024];
+                while (System.nanoTime() < deadline) {
+                    try (Socket socket = new Socket("localhost", port)) {
+                        socket.setSoLinger(true, 0);
+                        OutputStream out = socket.getOutputStream();
+                        out.write(REQUEST);
+                        InputStream in = socket.getInputStream();
+                        while (in.read(buffer) != -1) {
+                            // descartar la respuesta
+                        }
+                        completed.increment();
+                    } catch (IOException e) {
+                        errors.increment();
+                    }
+                }
+                done.countDown();
+            });
+            client.setDaemon(true);
+            client.start();
+        }
+        done.await();
+        return new long[]{completed.sum(), errors.sum()};
+    }
+}
@@ -0,0 +1,163 @@
+package com.mycompany.httpserver;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pruebas de la cadena de filtros y de la escritura de respuestas con
+ * cabeceras precodificadas
+ */
+public class FilterChainTest {
+
+    @BeforeEach
+    public void setUp() {
+        HttpServer.services.clear();
+        HttpServer.clearFilters();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        HttpServer.clearFilters();
+    }
+
+    private static HttpRequest request(String method, String path, Map<String, String> headers) {
+        return new HttpRequest(method, URI.create(path), "HTTP/1.1", headers, new byte[0]);
+    }
+
+    private static String run(HttpRequest req, HttpResponse res) throws IOException {
+        new FilterChain(HttpServer.filters()).run(req, res);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        res.writeTo(out);
+        return out.toString("ISO-8859-1");
+    }
+
+    @Test
+    public void testServiceResponseIsWellFormed() throws IOException {
+        HttpServer.get("/hello", (req, resp) -> "Hello " + req.getValue("name"));
+
+        String response = run(request("GET", "/app/hello?name=Ana", new HashMap<>()), new HttpResponse());
+
+        assertEquals("HTTP/1.1 200 OK\r\n"
+                + "Content-Type: application/json\r\n"
+                + "Content-Length: 9\r\n"
+                + "\r\n"
+                + "Hello Ana", response, "Las cabeceras deben terminar en CRLF y llevar Content-Length");
+    }
+
+    @Test
+    public void testFiltersRunInRegistrationOrder() throws IOException {
+        StringBuilder trace = new StringBuilder();
+        HttpServer.filter((req, res, chain) -> {
+            trace.append("a>");
+            chain.next(req, res);
+            trace.append("<a");
+        });
+        HttpServer.filter((req, res, chain) -> {
+            trace.append("b>");
+            chain.next(req, res);
+            trace.append("<b");
+        });
+        HttpServer.get("/order", (req, resp) -> {
+            trace.append("servicio");
+            return "ok";
+        });
+
+        run(request("GET", "/app/order", new HashMap<>()), new HttpResponse());
+
+        assertEquals("a>b>servicio<b<a", trace.toString(), "Los filtros deben envolver al manejador en orden");
+    }
+
+    @Test
+    public void testHeadersFilterAndConnectionClose() throws IOException {
+        HttpServer.filter(new HeadersFilter(HttpHeader.of("X-Content-Type-Options", "nosniff"),
+                HttpHeader.of("Cache-Control", "no-store")));
+        HttpResponse res = new HttpResponse();
+        res.close = true;
+
+        String response = run(request("GET", "/missing.txt", new HashMap<>()), res);
+
+        assertTrue(response.startsWith("HTTP/1.1 404 Not Found\r\nContent-Type: text/plain\r\n"
+                + "X-Content-Type-Options: nosniff\r\nCache-Control: no-store\r\n"
+                + "Content-Length: 13\r\nConnection: close\r\n\r\n"), "Cabeceras inesperadas: " + response);
+    }
+
+    @Test
+    public void testAuthFilterShortCircuits() throws IOException {
+        boolean[] called = {false};
+        HttpServer.filter(new BasicAuthFilter("/app/admin", "admin", "user", "secret"));
+        HttpServer.get("/admin", (req, resp) -> {
+            called[0] = true;
+            return "ok";
+        });
+
+        String denied = run(request("GET", "/app/admin", new HashMap<>()), new HttpResponse());
+        assertTrue(denied.startsWith("HTTP/1.1 401 Unauthorized\r\n"), "Sin credenciales debe responder 401");
+        assertTrue(denied.contains("WWW-Authenticate: Basic realm=\"admin\"\r\n"), "Debe pedir credenciales");
+        assertFalse(called[0], "El servicio no debe ejecutarse sin credenciales");
+
+        Map<String, String> wrong = new HashMap<>();
+        // user:secreT
+        wrong.put("authorization", "Basic dXNlcjpzZWNyZVQ=");
+        assertTrue(run(request("GET", "/app/admin", wrong), new HttpResponse()).startsWith("HTTP/1.1 401"),
+                   "Con una contraseña incorrecta debe responder 401");
+        assertFalse(called[0], "El servicio no debe ejecutarse con credenciales incorrectas");
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put("authorization", "Basic dXNlcjpzZWNyZXQ=");
+        String allowed = run(request("GET", "/app/admin", headers), new HttpResponse());
+        assertTrue(allowed.startsWith("HTTP/1.1 200 OK\r\n"), "Con credenciales debe responder 200");
+        assertTrue(called[0], "El servicio debe ejecutarse con credenciales válidas");
+    }
+
+    @Test
+    public void testCorsPreflight() throws IOException {
+        HttpServer.filter(new CorsFilter("*"));
+        Map<String, String> headers = new HashMap<>();
+        headers.put("access-control-request-method", "POST");
+
+        String response = run(request("OPTIONS", "/app/hello", headers), new HttpResponse());
+
+        assertTrue(response.startsWith("HTTP/1.1 204 No Content\r\nAccess-Control-Allow-Origin: *\r\n"),
+                   "La solicitud preflight debe responderse con 204");
+        assertTrue(response.contains("Access-Control-Allow-Methods: GET, POST, OPTIONS\r\n"),
+                   "Debe indicar los métodos permitidos");
+        assertFalse(response.contains("Content-Length"), "Una respuesta 204 no lleva Content-Length");
+        assertTrue(response.endsWith("\r\n\r\n"), "La respuesta preflight no lleva cuerpo");
+    }
+
+    @Test
+    public void testTimingFilterWritesDecimalDuration() throws IOException {
+        HttpServer.filter(new TimingFilter());
+
+        String response = run(request("GET", "/missing.txt", new HashMap<>()), new HttpResponse());
+
+        assertTrue(response.matches("(?s).*\r\nServer-Timing: app;dur=\\d+\\.\\d{3}\r\n.*"),
+                   "Server-Timing debe expresar milisegundos con tres decimales: " + response);
+    }
+
+    @Test
+    public void testWritingResponseDoesNotAllocate() throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        HttpResponse res = new HttpResponse();
+        res.setContentType(HttpHeader.CONTENT_TYPE_JSON);
+        res.addHeader(HttpHeader.of("Server-Timing", "app;dur="), 1234, 3);
+        res.setBody(new byte[100]);
+        OutputStream out = OutputStream.nullOutputStream();
+        for (int i = 0; i < 10_000; i++) {
+            res.writeTo(out);
+        }
+        long threadId = Thread.currentThread().threadId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 10_000; i++) {
+            res.writeTo(out);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(allocated < 1024, "Escribir la respuesta no debe reservar memoria, reservó " + allocated + " bytes");
+    }
+}
@@ -0,0 +1,89 @@
+package com.mycompany.httpserver;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Pruebas unitarias para la compresión de cabeceras HPACK
+ * Usa los ejemplos del apéndice C del RFC 7541 y verifica que el codificador
+ * y el decodificador se entienden entre sí
+ */
+public class HpackTest {
+
+    private static byte[] hex(String value) {
+        return HexFormat.of().parseHex(value.replace(" ", ""));
+    }
+
+    @Test
+    public void testDecodeRequestsWithHuffman() throws HpackException {
+        // RFC 7541 C.4: tres peticiones consecutivas sobre la misma conexión
+        Hpack.Decoder decoder = new Hpack.Decoder(4096, 16384);
+
+        List<Hpack.Header> first = decoder.decode(hex("8286 8441 8cf1 e3c2 e5f2 3a6b a0ab 90f4 ff"));
+        assertEquals(List.of(
+                new Hpack.Header(":method", "GET"),
+                new Hpack.Header(":scheme", "http"),
+                new Hpack.Header(":path", "/"),
+                new Hpack.Header(":authority", "www.example.com")), first,
+                "Debe decodificar la primera petición");
+
+        List<Hpack.Header> second = decoder.decode(hex("8286 84be 5886 a8eb 1064 9cbf"));
+        assertEquals(new Hpack.Header(":authority", "www.example.com"), second.get(3),
+                     "Debe reutilizar la entrada de la tabla dinámica");
+        assertEquals(new Hpack.Header("cache-control", "no-cache"), second.get(4),
+                     "Debe decodificar cadenas con Huffman");
+
+        List<Hpack.Header> third = decoder.decode(hex("8287 85bf 4088 25a8 49e9 5ba9 7d7f 8925 a849 e95b b8e8 b4bf"));
+        assertEquals(new Hpack.Header(":scheme", "https"), third.get(1), "Debe usar la tabla estática");
+        assertEquals(new Hpack.Header(":authority", "www.example.com"), third.get(3),
+                     "Los índices dinámicos deben desplazarse al insertar");
+        assertEquals(new Hpack.Header("custom-key", "custom-value"), third.get(4),
+                     "Debe decodificar nombres literales");
+    }
+
+    @Test
+    public void testEncoderRoundTrip() throws HpackException {
+        Hpack.Encoder encoder = new Hpack.Encoder();
+        Hpack.Decoder decoder = new Hpack.Decoder(4096, 16384);
+        List<Hpack.Header> headers = List.of(
+                new Hpack.Header(":status", "200"),
+                new Hpack.Header("content-type", "text/html"),
+                new Hpack.Header("content-length", "1234"),
+                new Hpack.Header("x-custom", "valor ñ"));
+
+        byte[] firstBlock = encoder.encode(headers);
+        assertEquals(headers, decoder.decode(firstBlock), "El primer bloque debe decodificarse igual");
+
+        byte[] secondBlock = encoder.encode(headers);
+        assertEquals(headers, decoder.decode(secondBlock), "El segundo bloque debe decodificarse igual");
+        assertTrue(secondBlock.length < firstBlock.length,
+                   "La tabla dinámica debe reducir el tamaño de las cabeceras repetidas");
+    }
+
+    @Test
+    public void testHuffmanRoundTrip() throws HpackException {
+        byte[] value = "Mozilla/5.0 (X11; Linux x86_64) ÿ\u0000".getBytes(StandardCharsets.ISO_8859_1);
+        java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+        Huffman.encode(value, out);
+
+        assertEquals(Huffman.encodedLength(value), out.size(), "La longitud calculada debe coincidir");
+        assertArrayEquals(value, Huffman.decode(out.toByteArray(), 0, out.size()), "Debe recuperar el valor original");
+    }
+
+    @Test
+    public void testInvalidIndex() {
+        Hpack.Decoder decoder = new Hpack.Decoder(4096, 16384);
+        assertThrows(HpackException.class, () -> decoder.decode(hex("be")),
+                     "Un índice fuera de las tablas debe ser rechazado");
+    }
+
+    @Test
+    public void testTableSizeUpdateAboveLimit() {
+        Hpack.Decoder decoder = new Hpack.Decoder(4096, 16384);
+        assertThrows(HpackException.class, () -> decoder.decode(hex("3fe21f")),
+                     "Una actualización de tamaño mayor al anunciado debe ser rechazada");
+    }
+}
@@ -0,0 +1,466 @@
+package com.mycompany.httpserver;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import com.sun.management.HotSpotDiagnosticMXBean;
+import com.sun.management.HotSpotDiagnosticMXBean.ThreadDumpFormat;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.*;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pruebas de integración para HTTP/2 sin TLS (h2c)
+ * Usa el HttpClient del JDK, que negocia h2c con Upgrade, y un cliente
+ * mínimo que habla HTTP/2 directamente con el prefacio de conexión
+ */
+public class Http2ConnectionTest {
+
+    private static int port;
+    /** Mayor que la ventana inicial de 65535 bytes */
+    private static final String LARGE_BODY = "0123456789abcdef".repeat(12_500);
+    private static HttpClient client;
+    private static final CountDownLatch endlessClosed = new CountDownLatch(1);
+
+    @BeforeAll
+    public static void startServer() throws Exception {
+        HttpServer.get("/hello", (req, resp) -> "Hello " + req.getValue("name"));
+        HttpServer.get("/large", (req, resp) -> LARGE_BODY);
+        // cuerpo transmitido sin longitud, mayor de lo que HTTP/2 acepta acumular
+        HttpServer.get("/endless", (req, resp) -> {
+            resp.setBody(new com.mycompany.httpserver.HttpResponse.StreamingBody() {
+                @Override
+                public void writeTo(OutputStream out) throws IOException {
+                    byte[] chunk = new byte[64 * 1024];
+                    for (int i = 0; i < 1024; i++) {
+                        out.write(chunk);
+                    }
+                }
+
+                @Override
+                public void close() {
+                    endlessClosed.countDown();
+                }
+            }, -1);
+            return null;
+        });
+        port = TestServer.start().port();
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+    }
+
+    @AfterAll
+    public static void stopServer() throws IOException {
+        HttpServer.stopServer();
+    }
+
+    private static java.net.http.HttpRequest request(String path) {
+        return java.net.http.HttpRequest.newBuilder(URI.create("http://localhost:" + port + path)).build();
+    }
+
+    @Test
+    public void testUpgradeServesStaticFile() throws Exception {
+        HttpResponse<String> response = client.send(request("/index.html"), HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(HttpClient.Version.HTTP_2, response.version(), "La respuesta debe llegar por HTTP/2");
+        assertEquals(200, response.statusCode(), "Debe responder 200");
+        assertTrue(response.body().contains("<html") || response.body().contains("<!DOCTYPE"),
+                   "Debe entregar el contenido de index.html");
+    }
+
+    @Test
+    public void testServiceOverHttp2() throws Exception {
+        HttpResponse<String> response = client.send(request("/app/hello?name=Pedro"), HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(HttpClient.Version.HTTP_2, response.version(), "La respuesta debe llegar por HTTP/2");
+        assertTrue(response.body().contains("Hello Pedro"), "El servicio registrado debe responder por HTTP/2");
+    }
+
+    @Test
+    public void testOversizedStreamingBodyFails() throws Exception {
+        HttpResponse<String> response = client.send(request("/app/endless"), HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(500, response.statusCode(), "Un cuerpo demasiado grande para acumular debe responder 500");
+        assertTrue(endlessClosed.await(5, TimeUnit.SECONDS), "El cuerpo abandonado debe cerrarse");
+    }
+
+    @Test
+    public void testMultiplexedRequests() throws Exception {
+        // la primera petición establece la conexión h2c; las demás comparten sus streams
+        client.send(request("/"), HttpResponse.BodyHandlers.discarding());
+
+        List<CompletableFuture<HttpResponse<byte[]>>> responses = new ArrayList<>();
+        String[] paths = {"/styles/style.css", "/scripts/script.js", "/images/pajaro.jpg",
+                          "/images/jiraga.png", "/images/favicon.ico", "/app/hello?name=h2", "/missing.txt"};
+        for (int i = 0; i < 3; i++) {
+            for (String path : paths) {
+                responses.add(client.sendAsync(request(path), HttpResponse.BodyHandlers.ofByteArray()));
+            }
+        }
+        for (CompletableFuture<HttpResponse<byte[]>> future : responses) {
+            HttpResponse<byte[]> response = future.get();
+            assertEquals(HttpClient.Version.HTTP_2, response.version(), "Todas las respuestas deben usar HTTP/2");
+            if (response.uri().getPath().equals("/missing.txt")) {
+                assertEquals(404, response.statusCode(), "Un recurso inexistente debe responder 404");
+            } else {
+                assertEquals(200, response.statusCode(), "Debe responder 200: " + response.uri());
+            }
+        }
+
+        byte[] expected = Files.readAllBytes(Paths.get("src/main/java/resorces/images/pajaro.jpg"));
+        HttpResponse<byte[]> image = client.send(request("/images/pajaro.jpg"), HttpResponse.BodyHandlers.ofByteArray());
+        assertArrayEquals(expected, image.body(), "La imagen debe llegar completa");
+    }
+
+    @Test
+    public void testPriorKnowledge() throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            out.write(Http2Connection.PREFACE);
+            out.write(Http2Connection.frame(0x4, 0, 0, new byte[0]));
+
+            out.write(Http2Connection.frame(0x1, 0x1 | 0x4, 1, requestBlock("/app/hello?name=pk")));
+            out.flush();
+            String first = readBody(in, 1);
+            assertTrue(first.contains("Hello pk"), "Debe responder en el stream 1");
+
+            out.write(Http2Connection.frame(0x1, 0x1 | 0x4, 3, requestBlock("/app/hello?name=again")));
+            out.flush();
+            String second = readBody(in, 3);
+            assertTrue(second.contains("Hello again"), "La conexión debe seguir atendiendo nuevos streams");
+        }
+    }
+
+    /** :method GET, :scheme http, :path literal sin indexar, :authority localhost */
+    private static byte[] requestBlock(String path) throws IOException {
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        block.write(0x82);
+        block.write(0x86);
+        byte[] pathBytes = path.getBytes("US-ASCII");
+        block.write(0x04);
+        block.write(pathBytes.length);
+        block.write(pathBytes);
+        byte[] authority = "localhost".getBytes("US-ASCII");
+        block.write(0x01);
+        block.write(authority.length);
+        block.write(authority);
+        return block.toByteArray();
+    }
+
+    private static String readBody(DataInputStream in, int streamId) throws IOException {
+        while (true) {
+            int length = (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+            int type = in.readUnsignedByte();
+            in.readUnsignedByte();
+            int stream = in.readInt();
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            assertNotEquals(0x7, type, "El servidor no debe cerrar la conexión con GOAWAY");
+            if (type == 0x0 && stream == streamId) {
+                return new String(payload, "UTF-8");
+            }
+        }
+    }
+
+    @Test
+    public void testContentTypeOverHttp2() throws Exception {
+        HttpResponse<String> response = client.send(request("/styles/style.css"), HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(HttpClient.Version.HTTP_2, response.version(), "La respuesta debe llegar por HTTP/2");
+        assertEquals("text/css", response.headers().firstValue("content-type").orElse(null),
+                     "El tipo de contenido debe llegar como cabecera HTTP/2");
+        assertEquals(String.valueOf(response.body().getBytes("UTF-8").length),
+                     response.headers().firstValue("content-length").orElse(null),
+                     "Content-Length debe coincidir con el cuerpo");
+    }
+
+    @Test
+    public void testWriterEndsWhenBlockedClientLeaves() throws Exception {
+        int before = h2Writers();
+        for (int i = 0; i < 5; i++) {
+            try (Socket socket = new Socket("localhost", port)) {
+                socket.setSoTimeout(5000);
+                OutputStream out = socket.getOutputStream();
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                out.write(Http2Connection.PREFACE);
+                // SETTINGS_INITIAL_WINDOW_SIZE = 0: el cuerpo queda bloqueado por el control de flujo
+                out.write(Http2Connection.frame(0x4, 0, 0, new byte[]{0, 0x4, 0, 0, 0, 0}));
+                out.write(Http2Connection.frame(0x1, 0x1 | 0x4, 1, requestBlock("/")));
+                out.flush();
+                Frame frame;
+                do {
+                    frame = readFrame(in);
+                } while (frame.type() != 0x1 || frame.stream() != 1);
+            }
+        }
+
+        int after = h2Writers();
+        for (int i = 0; i < 50 && after > before; i++) {
+            Thread.sleep(100);
+            after = h2Writers();
+        }
+        assertTrue(after <= before, "Los hilos escritores deben terminar cuando el cliente se desconecta: "
+                + (after - before) + " siguen vivos");
+    }
+
+    /** Cuenta los hilos h2-writer en un volcado de hilos, que incluye los virtuales */
+    private static int h2Writers() throws IOException {
+        Path dump = Files.createTempFile("threads", ".txt");
+        Files.delete(dump);
+        try {
+            ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class)
+                    .dumpThreads(dump.toString(), ThreadDumpFormat.TEXT_PLAIN);
+            int count = 0;
+            for (String line : Files.readAllLines(dump)) {
+                if (line.contains("h2-writer")) {
+                    count++;
+                }
+            }
+            return count;
+        } finally {
+            Files.deleteIfExists(dump);
+        }
+    }
+
+    @Test
+    public void testResetStreamsDoNotBypassConcurrencyLimit() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        HttpServer.get("/slow", (req, resp) -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            return "slow";
+        });
+        int streams = 150;
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            out.write(Http2Connection.PREFACE);
+            out.write(Http2Connection.frame(0x4, 0, 0, new byte[0]));
+            // HEADERS y RST_STREAM (CANCEL) en seguida: el stream se cierra pero su manejador sigue corriendo
+            for (int i = 0; i < streams; i++) {
+                int id = 1 + 2 * i;
+                out.write(Http2Connection.frame(0x1, 0x1 | 0x4, id, requestBlock("/app/slow")));
+                out.write(Http2Connection.frame(0x3, 0, id, new byte[]{0, 0, 0, 0x8}));
+            }
+            out.flush();
+
+            int refused = 0;
+            while (refused < streams - 100) {
+                Frame frame = readFrame(in);
+                assertNotEquals(0x7, frame.type(), "El servidor no debe cerrar la conexión con GOAWAY");
+                if (frame.type() == 0x3 && frame.payload()[3] == 0x7) {
+                    refused++;
+                }
+            }
+            assertEquals(streams - 100, refused, "Los streams por encima del límite deben rechazarse con REFUSED_STREAM");
+            assertTrue(maxRunning.get() <= 100, "No debe haber más manejadores en curso que MAX_CONCURRENT_STREAMS: "
+                    + maxRunning.get());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testFlowControlWithSmallWindow() throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            out.write(Http2Connection.PREFACE);
+            // SETTINGS_INITIAL_WINDOW_SIZE = 1000
+            out.write(Http2Connection.frame(0x4, 0, 0, new byte[]{0, 0x4, 0, 0, 0x3, (byte) 0xe8}));
+            out.write(Http2Connection.frame(0x1, 0x1 | 0x4, 1, requestBlock("/app/large")));
+            out.flush();
+
+            int streamWindow = 1000;
+            int connectionWindow = 65535;
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            int updates = 0;
+            while (true) {
+                Frame frame = readFrame(in);
+                assertNotEquals(0x7, frame.type(), "El servidor no debe cerrar la conexión con GOAWAY");
+                if (frame.type() != 0x0 || frame.stream() != 1) {
+                    continue;
+                }
+                int length = frame.payload().length;
+                assertTrue(length <= streamWindow, "No debe exceder la ventana del stream: " + length);
+                assertTrue(length <= connectionWindow, "No debe exceder la ventana de la conexión: " + length);
+                streamWindow -= length;
+                connectionWindow -= length;
+                body.write(frame.payload());
+                if ((frame.flags() & 0x1) != 0) {
+                    break;
+                }
+                // abre la ventana del stream de a poco y la de la conexión sólo cuando se agota
+                if (streamWindow == 0) {
+                    out.write(Http2Connection.frame(0x8, 0, 1, intBytes(1000)));
+                    streamWindow += 1000;
+                    updates++;
+                }
+                if (connectionWindow < 1000) {
+                    out.write(Http2Connection.frame(0x8, 0, 0, intBytes(65535)));
+                    connectionWindow += 65535;
+                }
+                out.flush();
+            }
+
+            assertEquals(LARGE_BODY, body.toString("UTF-8"), "El cuerpo debe llegar completo");
+            assertTrue(updates >= LARGE_BODY.length() / 1000 - 1, "El envío debe esperar cada WINDOW_UPDATE");
+        }
+    }
+
+    @Test
+    public void testWeightOrdersStreams() throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            out.write(Http2Connection.PREFACE);
+            // SETTINGS_INITIAL_WINDOW_SIZE = 0: ambas respuestas esperan hasta abrir las ventanas
+            out.write(Http2Connection.frame(0x4, 0, 0, new byte[]{0, 0x4, 0, 0, 0, 0}));
+            // PRIORITY: stream 1 con peso 1, stream 3 con peso 256
+            out.write(Http2Connection.frame(0x2, 0, 1, new byte[]{0, 0, 0, 0, 0}));
+            out.write(Http2Connection.frame(0x2, 0, 3, new byte[]{0, 0, 0, 0, (byte) 255}));
+            out.write(Http2Connection.frame(0x1, 0x1 | 0x4, 1, requestBlock("/app/large")));
+            out.write(Http2Connection.frame(0x1, 0x1 | 0x4, 3, requestBlock("/app/large")));
+            out.flush();
+            int headers = 0;
+            while (headers < 2) {
+                if (readFrame(in).type() == 0x1) {
+                    headers++;
+                }
+            }
+
+            out.write(Http2Connection.frame(0x8, 0, 0, intBytes(1_000_000)));
+            out.write(Http2Connection.frame(0x8, 0, 3, intBytes(1_000_000)));
+            out.write(Http2Connection.frame(0x8, 0, 1, intBytes(1_000_000)));
+            out.flush();
+            int lowWeightFrames = 0;
+            while (true) {
+                Frame frame = readFrame(in);
+                if (frame.type() == 0x0 && frame.stream() == 1) {
+                    lowWeightFrames++;
+                    assertFalse((frame.flags() & 0x1) != 0, "El stream de peso 1 no debe terminar primero");
+                }
+                if (frame.type() == 0x0 && frame.stream() == 3 && (frame.flags() & 0x1) != 0) {
+                    break;
+                }
+            }
+            assertTrue(lowWeightFrames <= 1, "El stream de peso 256 debe recibir casi todo el ancho de banda: "
+                    + lowWeightFrames + " tramas del stream de peso 1");
+        }
+    }
+
+    @Test
+    public void testMalformedFieldsAreReset() throws Exception {
+        List<List<Hpack.Header>> malformed = List.of(
+                requestHeaders("GET", "x-a", "v\r\nX-Injected: yes"),
+                requestHeaders("GET", "x-a", "v\u0000"),
+                requestHeaders("GET", "x a", "v"),
+                requestHeaders("GET", "x-a", " v"),
+                requestHeaders("GET /x HTTP/1.1\r\nX-Injected: yes\r\n", "x-a", "v"));
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            out.write(Http2Connection.PREFACE);
+            out.write(Http2Connection.frame(0x4, 0, 0, new byte[0]));
+            Hpack.Encoder encoder = new Hpack.Encoder();
+            int streamId = 1;
+            for (List<Hpack.Header> headers : malformed) {
+                out.write(Http2Connection.frame(0x1, 0x1 | 0x4, streamId, encoder.encode(headers)));
+                out.flush();
+                Frame frame;
+                do {
+                    frame = readFrame(in);
+                    assertNotEquals(0x7, frame.type(), "Una cabecera mal formada no debe cerrar la conexión");
+                    assertFalse(frame.type() == 0x1 && frame.stream() == streamId,
+                                "Una cabecera mal formada no debe llegar a los servicios");
+                } while (frame.type() != 0x3 || frame.stream() != streamId);
+                assertEquals(1, ByteBuffer.wrap(frame.payload()).getInt(), "Debe reiniciarse con PROTOCOL_ERROR");
+                streamId += 2;
+            }
+
+            byte[] valid = encoder.encode(requestHeaders("GET", "x-a", "v"));
+            out.write(Http2Connection.frame(0x1, 0x1 | 0x4, streamId, valid));
+            out.flush();
+            assertTrue(readBody(in, streamId).contains("Hello"), "Una cabecera válida debe atenderse");
+        }
+    }
+
+    @Test
+    public void testBufferedBodiesAreCappedPerConnection() throws Exception {
+        byte[] chunk = new byte[16384];
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(10_000);
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            out.write(Http2Connection.PREFACE);
+            out.write(Http2Connection.frame(0x4, 0, 0, new byte[0]));
+            Hpack.Encoder encoder = new Hpack.Encoder();
+            // tres subidas de 6 MiB sin terminar: por separado caben en el límite de 8 MiB, juntas no
+            for (int streamId = 1; streamId <= 5; streamId += 2) {
+                out.write(Http2Connection.frame(0x1, 0x4, streamId,
+                        encoder.encode(requestHeaders("POST", "content-type", "text/plain"))));
+                for (int i = 0; i < 6 * 64; i++) {
+                    out.write(Http2Connection.frame(0x0, 0, streamId, chunk));
+                }
+            }
+            out.flush();
+            Frame frame;
+            do {
+                frame = readFrame(in);
+                assertNotEquals(0x7, frame.type(), "El servidor no debe cerrar la conexión con GOAWAY");
+            } while (frame.type() != 0x3);
+            assertEquals(5, frame.stream(), "Debe reiniciarse el stream que supera el total acumulado");
+            assertEquals(0xb, ByteBuffer.wrap(frame.payload()).getInt(), "Debe reiniciarse con ENHANCE_YOUR_CALM");
+
+            out.write(Http2Connection.frame(0x0, 0x1, 1, new byte[0]));
+            out.flush();
+            assertTrue(readBody(in, 1).contains("Hello"), "Los demás streams deben poder terminar");
+        }
+    }
+
+    private static List<Hpack.Header> requestHeaders(String method, String name, String value) {
+        return List.of(new Hpack.Header(":method", method), new Hpack.Header(":scheme", "http"),
+                new Hpack.Header(":path", "/app/hello?name=h2"), new Hpack.Header(":authority", "localhost"),
+                new Hpack.Header(name, value));
+    }
+
+    private record Frame(int type, int flags, int stream, byte[] payload) {
+    }
+
+    private static Frame readFrame(DataInputStream in) throws IOException {
+        int length = (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+        int type = in.readUnsignedByte();
+        int flags = in.readUnsignedByte();
+        int stream = in.readInt() & 0x7fffffff;
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new Frame(type, flags, stream, payload);
+    }
+
+    private static byte[] intBytes(int value) {
+        return new byte[]{(byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value};
+    }
+}
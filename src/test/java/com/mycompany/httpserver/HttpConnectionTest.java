@@ -0,0 +1,226 @@
+package com.mycompany.httpserver;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import com.mycompany.httpserver.ServerMetrics.TimeoutKind;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Pruebas de integración para los tiempos límite de las conexiones
+ * Levanta el servidor con tiempos cortos y verifica que los clientes lentos
+ * o inactivos (slowloris) son desconectados y contabilizados en las métricas
+ */
+public class HttpConnectionTest {
+
+    private static int port;
+
+    @BeforeAll
+    public static void startServer() throws Exception {
+        // cuerpo transmitido por partes durante más tiempo que el límite de escritura
+        HttpServer.get("/slow-stream", (req, resp) -> {
+            resp.setBody(new HttpResponse.StreamingBody() {
+                @Override
+                public void writeTo(OutputStream out) throws IOException {
+                    for (int i = 0; i < 5; i++) {
+                        out.write(("parte " + i + "\n").getBytes(StandardCharsets.US_ASCII));
+                        try {
+                            Thread.sleep(200);
+                        } catch (InterruptedException e) {
+                            throw new InterruptedIOException();
+                        }
+                    }
+                }
+
+                @Override
+                public void close() {
+                }
+            }, -1);
+            return null;
+        });
+        HttpServer.get("/list", (req, resp) -> req.getHeader("x-list"));
+        String[] args = {
+            // muy por encima del periodo de gracia, para que al cliente lento lo cierre la tasa mínima
+            "--header-timeout=2000",
+            "--keep-alive-timeout=300",
+            "--write-timeout=500",
+            "--max-body-size=1000",
+            "--min-data-rate=100",
+            "--min-data-rate-grace=300",
+            "--timer-tick=10"
+        };
+        port = TestServer.start(args).port();
+    }
+
+    @AfterAll
+    public static void stopServer() throws IOException {
+        HttpServer.stopServer();
+    }
+
+    @Test
+    public void testSilentClientIsClosed() throws IOException {
+        long before = ServerMetrics.getTimeouts(TimeoutKind.HEADER_READ);
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            long start = System.nanoTime();
+            assertEquals(-1, socket.getInputStream().read(), "El servidor debe cerrar la conexión inactiva");
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            assertTrue(elapsedMillis < 4000, "El cierre debe ocurrir cerca del tiempo límite: " + elapsedMillis + " ms");
+        }
+        assertTrue(ServerMetrics.getTimeouts(TimeoutKind.HEADER_READ) > before,
+                   "El tiempo límite de cabeceras debe quedar registrado");
+    }
+
+    @Test
+    public void testSlowClientIsClosed() throws Exception {
+        long before = ServerMetrics.getTimeouts(TimeoutKind.MIN_DATA_RATE);
+        long headerTimeoutsBefore = ServerMetrics.getTimeouts(TimeoutKind.HEADER_READ);
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            boolean closed = false;
+            String request = "GET /index.html HTTP/1.1\r\nHost: localhost\r\n";
+            for (int i = 0; i < request.length() && !closed; i++) {
+                try {
+                    out.write(request.charAt(i));
+                    out.flush();
+                    Thread.sleep(100);
+                } catch (IOException e) {
+                    closed = true;
+                }
+            }
+            if (!closed) {
+                assertEquals(-1, socket.getInputStream().read(), "El servidor debe cerrar la conexión lenta");
+            }
+        } catch (SocketException e) {
+            // la conexión fue reiniciada por el servidor
+        }
+        assertTrue(ServerMetrics.getTimeouts(TimeoutKind.MIN_DATA_RATE) > before,
+                   "El cliente lento debe cerrarse por no alcanzar la tasa mínima");
+        assertEquals(headerTimeoutsBefore, ServerMetrics.getTimeouts(TimeoutKind.HEADER_READ),
+                     "El cierre no debe deberse al tiempo límite de cabeceras");
+    }
+
+    @Test
+    public void testKeepAliveIdleConnectionIsClosed() throws IOException {
+        long before = ServerMetrics.getTimeouts(TimeoutKind.KEEP_ALIVE_IDLE);
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /images/jiraga.png HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            long contentLength = readContentLength(in);
+            assertTrue(contentLength > 0, "La imagen debe responderse con Content-Length");
+            assertEquals(contentLength, in.readNBytes((int) contentLength).length, "Debe recibirse la imagen completa");
+
+            assertEquals(-1, in.read(), "La conexión persistente inactiva debe cerrarse");
+        }
+        assertTrue(ServerMetrics.getTimeouts(TimeoutKind.KEEP_ALIVE_IDLE) > before,
+                   "El tiempo límite de inactividad debe quedar registrado");
+    }
+
+    @Test
+    public void testSlowStreamingBodyIsNotCutByWriteTimeout() throws IOException {
+        long before = ServerMetrics.getTimeouts(TimeoutKind.WRITE);
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /app/slow-stream HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.US_ASCII);
+
+            assertTrue(response.startsWith("HTTP/1.1 200 OK"), "Debe responder 200");
+            assertTrue(response.endsWith("parte 3\nparte 4\n"), "El cuerpo debe llegar completo: " + response);
+        }
+        assertEquals(before, ServerMetrics.getTimeouts(TimeoutKind.WRITE),
+                     "Un cuerpo que avanza no debe cortarse por el tiempo límite de escritura");
+    }
+
+    @Test
+    public void testMalformedRequestLine() throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write("BROKEN\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            assertEquals("HTTP/1.1 400 Bad Request", in.readLine(), "Una línea de petición inválida debe responder 400");
+        }
+    }
+
+    @Test
+    public void testOversizedBodyIsRefusedBeforeReading() throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            // sólo se envían las cabeceras: la respuesta no debe esperar al cuerpo
+            socket.getOutputStream().write("POST /index.html HTTP/1.1\r\nHost: localhost\r\nContent-Length: 1001\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            assertEquals("HTTP/1.1 413 Content Too Large", in.readLine(), "Un cuerpo mayor que el límite debe responder 413");
+        }
+    }
+
+    @Test
+    public void testRepeatedHeaders() throws IOException {
+        String merged = exchange("GET /app/list HTTP/1.1\r\nHost: localhost\r\nX-List: a\r\nX-List: b\r\n"
+                + "Connection: close\r\n\r\n");
+        assertTrue(merged.startsWith("HTTP/1.1 200 OK") && merged.endsWith("\r\n\r\na, b"),
+                   "Las cabeceras repetidas deben unirse en una lista: " + merged);
+
+        String sameLength = exchange("POST /app/list HTTP/1.1\r\nHost: localhost\r\nContent-Length: 2\r\n"
+                + "Content-Length: 2\r\nConnection: close\r\n\r\nok");
+        assertTrue(sameLength.startsWith("HTTP/1.1 200 OK"), "Longitudes repetidas iguales deben aceptarse");
+
+        String conflicting = exchange("POST /app/list HTTP/1.1\r\nHost: localhost\r\nContent-Length: 2\r\n"
+                + "Content-Length: 20\r\n\r\nok");
+        assertTrue(conflicting.startsWith("HTTP/1.1 400 Bad Request"), "Longitudes distintas deben responder 400");
+
+        String twoHosts = exchange("GET /app/list HTTP/1.1\r\nHost: a\r\nHost: b\r\n\r\n");
+        assertTrue(twoHosts.startsWith("HTTP/1.1 400 Bad Request"), "Dos cabeceras Host deben responder 400");
+    }
+
+    /** Envía la petición y lee hasta que el servidor cierra la conexión */
+    private static String exchange(String request) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+            return new String(socket.getInputStream().readAllBytes(), StandardCharsets.US_ASCII);
+        }
+    }
+
+    @Test
+    public void testHeadersThatCouldBeSplitAreRejected() throws IOException {
+        for (String header : new String[]{"X-A: v\rX-Injected: yes", "X-A: v\u0000", "Host : localhost"}) {
+            try (Socket socket = new Socket("localhost", port)) {
+                socket.setSoTimeout(5000);
+                socket.getOutputStream().write(("GET /index.html HTTP/1.1\r\n" + header + "\r\n\r\n")
+                        .getBytes(StandardCharsets.ISO_8859_1));
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                assertEquals("HTTP/1.1 400 Bad Request", in.readLine(), "Debe rechazar la cabecera " + header);
+            }
+        }
+    }
+
+    private static long readContentLength(InputStream in) throws IOException {
+        long contentLength = -1;
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                String header = line.toString().trim();
+                if (header.isEmpty()) {
+                    break;
+                }
+                if (header.toLowerCase().startsWith("content-length:")) {
+                    contentLength = Long.parseLong(header.substring(15).trim());
+                }
+                line.setLength(0);
+            } else {
+                line.append((char) b);
+            }
+        }
+        return contentLength;
+    }
+}
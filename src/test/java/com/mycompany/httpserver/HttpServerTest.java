@@ -120,10 +120,10 @@ public class HttpServerTest {
     @Test
     public void testHttpResponseHeaders() {
         // Verificar formato de cabeceras HTTP
-        String htmlHeader = "HTTP/1.1 200 OK\n\r" + "contente-type: text/html\n\r" + "\n\r";
-        String cssHeader = "HTTP/1.1 200 OK\n\r" + "contente-type: text/css\n\r" + "\n\r";
-        String jsHeader = "HTTP/1.1 200 OK\n\r" + "contente-type: text/javascript\n\r" + "\n\r";
-        String jsonHeader = "HTTP/1.1 200 OK\n\r" + "contente-type: application/json\n\r" + "\n\r";
+        String htmlHeader = new String(HttpStatus.OK.statusLine) + new String(HttpHeader.CONTENT_TYPE_HTML.line);
+        String cssHeader = new String(HttpStatus.OK.statusLine) + new String(HttpHeader.CONTENT_TYPE_CSS.line);
+        String jsHeader = new String(HttpStatus.OK.statusLine) + new String(HttpHeader.CONTENT_TYPE_JS.line);
+        String jsonHeader = new String(HttpStatus.OK.statusLine) + new String(HttpHeader.CONTENT_TYPE_JSON.line);
         
         assertTrue(htmlHeader.contains("HTTP/1.1 200 OK"), "Debe contener código de estado HTTP 200");
         assertTrue(cssHeader.contains("text/css"), "Debe contener tipo de contenido CSS");
@@ -452,4 +452,33 @@ public class HttpServerTest {
         assertEquals(0, HttpServer.services.size(), 
                      "El mapa debe estar vacío después de la segunda limpieza");
     }
+
+    /**
+     * Un fallo al aceptar (por ejemplo, sin descriptores libres) no debe
+     * terminar el aceptador: se reintenta tras una pausa
+     */
+    @Test
+    public void testAcceptFailuresAreRetried() throws IOException {
+        int[] calls = {0};
+        ServerSocket failing = new ServerSocket() {
+            @Override
+            public Socket accept() throws IOException {
+                if (++calls[0] == 3) {
+                    close();
+                }
+                throw new IOException("Too many open files");
+            }
+        };
+        HttpServer.running = true;
+        long start = System.nanoTime();
+        try {
+            HttpServer.acceptLoop(failing, new ServerConfig(), null, null);
+        } finally {
+            HttpServer.running = false;
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(3, calls[0], "El aceptador debe seguir intentando hasta que se cierre el socket");
+        assertTrue(elapsedMillis >= 30, "Debe esperar entre reintentos: " + elapsedMillis + " ms");
+    }
 }
@@ -0,0 +1,81 @@
+package com.mycompany.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compara la memoria reservada y el tiempo por respuesta de un servicio que
+ * arma su JSON concatenando cadenas contra uno que usa {@link JsonWriter}
+ * (valores sueltos y un record), escribiendo la respuesta completa en un
+ * flujo nulo.
+ *
+ * La memoria se mide con los bytes reservados por el hilo
+ * (com.sun.management.ThreadMXBean) después de un calentamiento.
+ *
+ * Ejecutar con:
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=com.mycompany.httpserver.JsonBenchmark -Dexec.args="2000000"
+ * (iteraciones por medición)
+ */
+public class JsonBenchmark {
+
+    record Reading(String name, long count, double pi, boolean ok) {
+    }
+
+    private static final OutputStream OUT = OutputStream.nullOutputStream();
+    private static long sink;
+    /** No es constante, para que el compilador no la incruste en la cadena. */
+    private static double pi = Math.PI;
+
+    public static void main(String[] args) throws IOException {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        HttpResponse res = new HttpResponse();
+
+        System.out.printf("%-16s %-14s %-10s%n", "approach", "bytes/resp", "ns/resp");
+        // la segunda ronda mide con el JIT ya estabilizado
+        for (int round = 0; round < 2; round++) {
+            measure("string", iterations, i -> {
+                String body = "{\"name\":\"Pedro\",\"count\":" + i + ",\"pi\":" + pi + ",\"ok\":true}";
+                res.reset();
+                res.setContentType(HttpHeader.CONTENT_TYPE_JSON);
+                res.setBody(body.getBytes(StandardCharsets.UTF_8));
+                sink += res.writeTo(OUT);
+            });
+            measure("json-writer", iterations, i -> {
+                res.reset();
+                res.json().beginObject().name("name").value("Pedro").name("count").value(i)
+                        .name("pi").value(pi).name("ok").value(true).endObject();
+                sink += res.writeTo(OUT);
+            });
+            measure("record", iterations, i -> {
+                res.reset();
+                res.json().value(new Reading("Pedro", i, pi, true));
+                sink += res.writeTo(OUT);
+            });
+        }
+        System.out.println("(" + sink + " bytes escritos)");
+    }
+
+    private interface Body {
+        void write(long i) throws IOException;
+    }
+
+    private static void measure(String name, int iterations, Body body) throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+        // calentamiento
+        for (int i = 0; i < iterations / 4; i++) {
+            body.write(i);
+        }
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            body.write(i);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        System.out.printf("%-16s %-14.1f %-10.1f%n", name, (double) allocated / iterations, (double) elapsed / iterations);
+    }
+}
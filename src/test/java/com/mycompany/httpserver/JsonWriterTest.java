@@ -0,0 +1,167 @@
+package com.mycompany.httpserver;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Pruebas del escritor JSON en streaming y de la serialización de records
+ */
+public class JsonWriterTest {
+
+    record Point(int x, long y, double z, boolean visible, String label) {
+    }
+
+    record Shape(String name, List<Point> points, Kind kind, Point center) {
+    }
+
+    enum Kind {
+        POLYGON
+    }
+
+    private static String json(JsonWriter writer) {
+        return new String(writer.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testObjectsAndArrays() {
+        JsonWriter writer = new JsonWriter();
+        writer.beginObject()
+                .name("a").value(1)
+                .name("b").beginArray().value(true).value(false).nullValue().endArray()
+                .name("c").beginObject().endObject()
+                .endObject();
+
+        assertEquals("{\"a\":1,\"b\":[true,false,null],\"c\":{}}", json(writer),
+                     "Las comas y los dos puntos deben insertarse automáticamente");
+    }
+
+    @Test
+    public void testStringEscaping() {
+        JsonWriter writer = new JsonWriter();
+        writer.value("comillas \" barra \\ salto\n tab\t control\u0001 ñ € 😀");
+
+        assertEquals("\"comillas \\\" barra \\\\ salto\\n tab\\t control\\u0001 ñ € 😀\"", json(writer),
+                     "Debe escapar caracteres especiales y codificar UTF-8");
+    }
+
+    @Test
+    public void testNumbers() {
+        JsonWriter writer = new JsonWriter();
+        writer.beginArray().value(0).value(-42).value(Long.MIN_VALUE).value(Long.MAX_VALUE)
+                .value(3.0).value(0.1).value(-2.5).value(Math.PI).value(1e300).value(5e-324).endArray();
+
+        assertEquals("[0,-42,-9223372036854775808,9223372036854775807,3,0.1,-2.5,3.141592653589793,1.0E300,4.9E-324]",
+                     json(writer), "Los números deben escribirse en su forma más corta");
+        assertThrows(IllegalArgumentException.class, () -> new JsonWriter().value(Double.NaN),
+                     "NaN no es un número JSON válido");
+    }
+
+    @Test
+    public void testDoublesRoundTrip() {
+        Random random = new Random(42);
+        JsonWriter writer = new JsonWriter();
+        for (int i = 0; i < 100_000; i++) {
+            double value = switch (i % 4) {
+                case 0 -> random.nextDouble();
+                case 1 -> random.nextInt(1_000_000) / 100.0;
+                case 2 -> (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(40) - 20);
+                default -> Double.longBitsToDouble(random.nextLong());
+            };
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                continue;
+            }
+            writer.reset();
+            writer.value(value);
+            String text = json(writer);
+            assertEquals(value, Double.parseDouble(text), "Debe leerse el mismo valor: " + text);
+            assertTrue(text.length() <= Double.toString(value).length() + 1,
+                       "No debe ser más largo que la representación de la JDK: " + text);
+        }
+    }
+
+    @Test
+    public void testRecords() {
+        JsonWriter writer = new JsonWriter();
+        Point center = new Point(1, 2L, 0.5, true, "centro");
+        writer.value(new Shape("triángulo", List.of(center, new Point(-3, 4L, 1e20, false, null)), Kind.POLYGON, center));
+
+        assertEquals("{\"name\":\"triángulo\",\"points\":["
+                + "{\"x\":1,\"y\":2,\"z\":0.5,\"visible\":true,\"label\":\"centro\"},"
+                + "{\"x\":-3,\"y\":4,\"z\":1.0E20,\"visible\":false,\"label\":null}],"
+                + "\"kind\":\"POLYGON\","
+                + "\"center\":{\"x\":1,\"y\":2,\"z\":0.5,\"visible\":true,\"label\":\"centro\"}}",
+                     json(writer), "Los records deben escribirse con sus componentes en orden");
+    }
+
+    @Test
+    public void testMapsAndInvalidNesting() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("list", new int[]{1, 2});
+        map.put("text", "x");
+        JsonWriter writer = new JsonWriter();
+        writer.value((Object) map);
+
+        assertEquals("{\"list\":[1,2],\"text\":\"x\"}", json(writer), "Debe escribir mapas y arreglos");
+        assertThrows(IllegalStateException.class, () -> new JsonWriter().name("x"),
+                     "Un nombre fuera de un objeto es inválido");
+        assertThrows(IllegalStateException.class, () -> new JsonWriter().beginArray().endObject().endArray(),
+                     "Los cierres deben estar balanceados");
+        assertThrows(IllegalStateException.class, () -> new JsonWriter().beginArray().name("a"),
+                     "Un arreglo no lleva nombres");
+        assertThrows(IllegalStateException.class, () -> new JsonWriter().beginObject().value(1),
+                     "Un valor dentro de un objeto necesita nombre");
+        assertThrows(IllegalStateException.class, () -> new JsonWriter().beginObject().endArray(),
+                     "Un objeto debe cerrarse con }");
+        assertThrows(IllegalStateException.class, () -> new JsonWriter().beginArray().beginObject().endArray(),
+                     "El cierre debe corresponder al nivel abierto");
+    }
+
+    @Test
+    public void testServiceWritesJsonResponse() throws IOException {
+        HttpServer.services.clear();
+        HttpServer.get("/point", (req, res) -> {
+            res.json().value(new Point(1, 2, 3.5, true, req.getValue("label")));
+            return null;
+        });
+        HttpResponse res = new HttpResponse();
+        HttpRequest req = new HttpRequest("GET", URI.create("/app/point?label=a"), "HTTP/1.1", new HashMap<>(), new byte[0]);
+        new FilterChain(new Filter[0]).run(req, res);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        res.writeTo(out);
+
+        String body = "{\"x\":1,\"y\":2,\"z\":3.5,\"visible\":true,\"label\":\"a\"}";
+        assertEquals("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: " + body.length()
+                + "\r\n\r\n" + body, out.toString(StandardCharsets.UTF_8), "El cuerpo JSON debe enviarse con su longitud");
+    }
+
+    @Test
+    public void testWriterDoesNotAllocate() throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        HttpResponse res = new HttpResponse();
+        OutputStream out = OutputStream.nullOutputStream();
+        for (int i = 0; i < 20_000; i++) {
+            res.reset();
+            res.json().beginObject().name("count").value(i).name("pi").value(Math.PI + i).endObject();
+            res.writeTo(out);
+        }
+        long threadId = Thread.currentThread().threadId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 20_000; i++) {
+            res.reset();
+            res.json().beginObject().name("count").value(i).name("pi").value(Math.PI + i).endObject();
+            res.writeTo(out);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(allocated < 1024, "Escribir JSON no debe reservar memoria, reservó " + allocated + " bytes");
+    }
+}
@@ -0,0 +1,40 @@
+package com.mycompany.httpserver;
+
+/**
+ * Servidor de origen para las pruebas del proxy inverso. ReverseProxyTest lo
+ * lanza en otro proceso, uno por puerto, porque HttpServer sólo puede
+ * atender un puerto por JVM. Escucha en el puerto indicado o, sin él, en uno
+ * libre, y lo imprime en una línea "PORT n" cuando ya acepta conexiones.
+ *
+ * También sirve para probar el proxy a mano:
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=com.mycompany.httpserver.ProxyUpstream -Dexec.args="35101"
+ */
+public class ProxyUpstream {
+
+    public static void main(String[] args) throws Exception {
+        String port = args.length > 0 ? args[0] : "0";
+        // puerto de esta instancia, para saber qué upstream atendió
+        HttpServer.get("/whoami", (req, resp) -> String.valueOf(HttpServer.localPort()));
+        HttpServer.get("/connections", (req, resp) -> String.valueOf(ServerMetrics.getConnectionsAccepted()));
+        HttpServer.get("/forwarded", (req, resp) -> req.getHeader("x-forwarded-for") + " " + req.getHeader("host"));
+        // estado que HttpStatus no registra
+        HttpServer.get("/teapot", (req, resp) -> {
+            resp.setStatus(418, "I'm a teapot");
+            return "short and stout";
+        });
+        HttpServer.get("/big", (req, resp) -> {
+            int size = Integer.parseInt(req.getValue("size"));
+            byte[] body = new byte[size];
+            for (int i = 0; i < size; i++) {
+                body[i] = (byte) ('a' + i % 26);
+            }
+            resp.setContentType(HttpHeader.CONTENT_TYPE_TEXT);
+            resp.setBody(body);
+            return null;
+        });
+        TestServer server = TestServer.start("--port=" + port, "--log-requests=false");
+        System.out.println("PORT " + server.port());
+        server.thread().join();
+    }
+}
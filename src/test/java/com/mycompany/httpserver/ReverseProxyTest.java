@@ -0,0 +1,288 @@
+package com.mycompany.httpserver;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pruebas del proxy inverso
+ * Levanta dos instancias del servidor en otros procesos (ProxyUpstream) y
+ * verifica el reparto entre ellas, la reutilización de conexiones, el envío
+ * del cuerpo por partes y la expulsión y readmisión de un upstream caído
+ */
+public class ReverseProxyTest {
+
+    private static int proxyPort;
+    private static int upstreamA;
+    private static int upstreamB;
+
+    private static final Map<Integer, Process> upstreams = new HashMap<>();
+    private static ReverseProxy proxy;
+
+    @BeforeAll
+    public static void startServers() throws Exception {
+        upstreamA = startUpstream(0);
+        upstreamB = startUpstream(0);
+        proxy = HttpServer.proxy("/upstream", "localhost:" + upstreamA, "localhost:" + upstreamB)
+                .healthCheck("/app/whoami", 200)
+                .maxFails(2)
+                .pool(8, 2000);
+        HttpServer.proxy("/down", "localhost:" + unusedPort())
+                .healthCheck("/", 60_000)
+                .maxFails(1);
+        proxyPort = TestServer.start().port();
+    }
+
+    @AfterAll
+    public static void stopServers() throws Exception {
+        HttpServer.stopServer();
+        HttpServer.clearProxies();
+        for (Process process : upstreams.values()) {
+            process.destroy();
+            process.waitFor();
+        }
+    }
+
+    /** Lanza ProxyUpstream en el puerto indicado (0 para uno libre) y devuelve el puerto */
+    private static int startUpstream(int port) throws Exception {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                ProxyUpstream.class.getName(), String.valueOf(port))
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        String line;
+        do {
+            line = out.readLine();
+        } while (line != null && !line.startsWith("PORT "));
+        if (line == null) {
+            fail("El upstream no arrancó en el puerto " + port);
+        }
+        // el resto de la salida se descarta para que el proceso no se bloquee al escribir
+        Thread drain = new Thread(() -> {
+            try {
+                out.transferTo(Writer.nullWriter());
+            } catch (IOException e) {
+                // el proceso terminó
+            }
+        });
+        drain.setDaemon(true);
+        drain.start();
+        int bound = Integer.parseInt(line.substring(5));
+        upstreams.put(bound, process);
+        return bound;
+    }
+
+    /** Un puerto en el que nadie escucha */
+    private static int unusedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /** Hace una petición HTTP/1.1 con Connection: close y devuelve la respuesta completa */
+    private static String get(int port, String path) throws IOException {
+        return request(port, "GET", path);
+    }
+
+    private static String request(int port, String method, String path) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(10_000);
+            OutputStream out = socket.getOutputStream();
+            out.write((method + " " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            return new String(socket.getInputStream().readAllBytes(), StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    private static String body(String response) {
+        return response.substring(response.indexOf("\r\n\r\n") + 4);
+    }
+
+    private static void await(String message, java.util.function.BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 100 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(condition.getAsBoolean(), message);
+    }
+
+    @Test
+    public void testRoundRobin() throws IOException {
+        Map<String, Integer> served = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            String response = get(proxyPort, "/upstream/app/whoami");
+            assertTrue(response.startsWith("HTTP/1.1 200 OK"), "El proxy debe devolver la respuesta del upstream");
+            served.merge(body(response), 1, Integer::sum);
+        }
+
+        assertEquals(10, served.get(String.valueOf(upstreamA)), "La mitad de las peticiones debe ir a cada upstream");
+        assertEquals(10, served.get(String.valueOf(upstreamB)), "La mitad de las peticiones debe ir a cada upstream");
+    }
+
+    @Test
+    public void testUpstreamConnectionsArePooled() throws IOException {
+        get(proxyPort, "/upstream/app/whoami");
+        get(proxyPort, "/upstream/app/whoami");
+        long before = Long.parseLong(body(get(upstreamA, "/app/connections")));
+        for (int i = 0; i < 50; i++) {
+            assertTrue(get(proxyPort, "/upstream/app/whoami").startsWith("HTTP/1.1 200"), "La petición debe atenderse");
+        }
+        long after = Long.parseLong(body(get(upstreamA, "/app/connections")));
+
+        // 25 peticiones, más la consulta directa y algún chequeo de salud
+        assertTrue(after - before < 10, "Las peticiones deben reutilizar las conexiones al upstream: "
+                + (after - before) + " conexiones nuevas");
+    }
+
+    @Test
+    public void testForwardedHeaders() throws IOException {
+        String response = get(proxyPort, "/upstream/app/forwarded");
+
+        assertEquals("127.0.0.1 localhost", body(response),
+                     "El upstream debe recibir la IP del cliente y el Host original");
+    }
+
+    @Test
+    public void testLargeBodyIsRelayed() throws IOException {
+        int size = 5_000_000;
+        String response = get(proxyPort, "/upstream/app/big?size=" + size);
+        String body = body(response);
+
+        assertTrue(response.contains("Content-Length: " + size + "\r\n"), "Debe conservar la longitud del upstream");
+        assertTrue(response.contains("Content-Type: text/plain\r\n"), "Debe conservar el tipo de contenido");
+        assertEquals(size, body.length(), "El cuerpo debe llegar completo");
+        for (int i = 0; i < size; i += 99_991) {
+            assertEquals((char) ('a' + i % 26), body.charAt(i), "El cuerpo debe llegar sin alteraciones");
+        }
+    }
+
+    @Test
+    public void testHeadKeepsUpstreamLength() throws IOException {
+        String response = request(proxyPort, "HEAD", "/upstream/app/big?size=1000");
+
+        assertTrue(response.startsWith("HTTP/1.1 200 OK"), "El proxy debe devolver la respuesta del upstream");
+        assertTrue(response.contains("Content-Length: 1000\r\n"), "Debe conservar la longitud del upstream");
+        assertTrue(response.endsWith("\r\n\r\n"), "Una respuesta a HEAD no lleva cuerpo");
+    }
+
+    @Test
+    public void testUnregisteredStatusIsRelayed() throws IOException {
+        for (int i = 0; i < 4; i++) {
+            String response = get(proxyPort, "/upstream/app/teapot");
+            assertTrue(response.startsWith("HTTP/1.1 418 I'm a teapot\r\n"),
+                       "Debe reenviar el estado del upstream aunque no esté registrado: " + response);
+            assertEquals("short and stout", body(response), "Debe reenviar el cuerpo");
+        }
+
+        assertTrue(proxy.upstreams[0].healthy && proxy.upstreams[1].healthy,
+                   "Un estado bien formado no es un fallo del upstream");
+    }
+
+    @Test
+    public void testUnreachableUpstream() throws IOException {
+        String first = get(proxyPort, "/down/anything");
+        String second = get(proxyPort, "/down/anything");
+
+        assertTrue(first.startsWith("HTTP/1.1 502 Bad Gateway"), "Un upstream inalcanzable debe dar 502");
+        assertTrue(second.startsWith("HTTP/1.1 503 Service Unavailable"),
+                   "Sin upstreams sanos debe responder 503");
+    }
+
+    @Test
+    public void testFailedUpstreamIsEjectedAndReadmitted() throws Exception {
+        ReverseProxy.Upstream b = proxy.upstreams[1];
+        Process process = upstreams.get(upstreamB);
+        process.destroy();
+        process.waitFor();
+
+        for (int i = 0; i < 10; i++) {
+            String response = get(proxyPort, "/upstream/app/whoami");
+            assertTrue(response.startsWith("HTTP/1.1 200 OK"), "Las peticiones deben pasar al upstream sano");
+            assertEquals(String.valueOf(upstreamA), body(response), "Sólo debe responder el upstream sano");
+        }
+        await("El upstream caído debe quedar expulsado", () -> !b.healthy);
+
+        startUpstream(upstreamB);
+        await("El upstream debe volver al reparto cuando pase el chequeo de salud", () -> b.healthy);
+        boolean servedByB = false;
+        for (int i = 0; i < 4; i++) {
+            servedByB |= body(get(proxyPort, "/upstream/app/whoami")).equals(String.valueOf(upstreamB));
+        }
+        assertTrue(servedByB, "El upstream readmitido debe volver a recibir peticiones");
+    }
+
+    @Test
+    public void testLeastConnections() {
+        ReverseProxy least = new ReverseProxy("/x", "a:1", "b:2", "c:3")
+                .balancing(ReverseProxy.Balancing.LEAST_CONNECTIONS);
+        least.upstreams[0].active.set(2);
+        least.upstreams[1].active.set(0);
+        least.upstreams[2].active.set(1);
+
+        for (int i = 0; i < 3; i++) {
+            assertSame(least.upstreams[1], least.choose(null), "Debe elegir el upstream con menos peticiones en curso");
+        }
+        least.upstreams[1].healthy = false;
+        assertSame(least.upstreams[2], least.choose(null), "No debe elegir un upstream expulsado");
+        assertSame(least.upstreams[0], least.choose(least.upstreams[2]), "Debe poder excluir el upstream que falló");
+    }
+
+    @Test
+    public void testHeadersThatWouldSplitTheRequestAreRejected() throws Exception {
+        ReverseProxy unreachable = new ReverseProxy("/x", "localhost:" + unusedPort());
+        Map<String, String> headers = new HashMap<>();
+        headers.put("x-a", "v\r\nX-Injected: yes");
+        HttpResponse response = new HttpResponse();
+        unreachable.handle(new HttpRequest("GET", new URI("/x/a"), "HTTP/2.0", headers, new byte[0]), response);
+        assertEquals(400, response.getStatusCode(), "Un valor con CRLF no debe enviarse al upstream");
+
+        response = new HttpResponse();
+        unreachable.handle(new HttpRequest("GET /y HTTP/1.1\r\n", new URI("/x/a"), "HTTP/2.0", new HashMap<>(),
+                new byte[0]), response);
+        assertEquals(400, response.getStatusCode(), "Un método que no es un token no debe enviarse al upstream");
+        assertTrue(unreachable.upstreams[0].healthy, "Una petición inválida no es un fallo del upstream");
+    }
+
+    @Test
+    public void testPrefixMatching() {
+        ReverseProxy api = new ReverseProxy("/api/", "localhost:1");
+
+        assertTrue(api.matches("/api"), "Debe atender el prefijo exacto");
+        assertTrue(api.matches("/api/users"), "Debe atender las rutas bajo el prefijo");
+        assertFalse(api.matches("/apiary"), "No debe atender rutas que sólo comparten el comienzo");
+    }
+
+    @Test
+    public void testChunkedRoundTrip() throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        ChunkedOutputStream chunks = new ChunkedOutputStream(encoded);
+        chunks.write("Hola ".getBytes(StandardCharsets.US_ASCII));
+        chunks.write("mundo, por partes".getBytes(StandardCharsets.US_ASCII));
+        chunks.finish();
+
+        assertEquals("5\r\nHola \r\n11\r\nmundo, por partes\r\n0\r\n\r\n",
+                     encoded.toString(StandardCharsets.US_ASCII), "Cada escritura debe ser un fragmento");
+        ChunkedInputStream decoded = new ChunkedInputStream(new ByteArrayInputStream(encoded.toByteArray()));
+        assertEquals("Hola mundo, por partes", new String(decoded.readAllBytes(), StandardCharsets.US_ASCII),
+                     "Debe decodificar los fragmentos");
+        assertTrue(decoded.isFinished(), "Debe consumir el último fragmento");
+    }
+
+    @Test
+    public void testChunkSizeMustBeHex() throws IOException {
+        for (String size : new String[]{"-1", "+5", "0x5", "5g"}) {
+            ChunkedInputStream decoded = new ChunkedInputStream(new ByteArrayInputStream(
+                    (size + "\r\nHola \r\n0\r\n\r\n").getBytes(StandardCharsets.US_ASCII)));
+            assertThrows(IOException.class, decoded::readAllBytes, "Debe rechazar el tamaño " + size);
+        }
+        ChunkedInputStream decoded = new ChunkedInputStream(new ByteArrayInputStream(
+                "A;ext=1\r\n0123456789\r\n0\r\n\r\n".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(10, decoded.readAllBytes().length, "Debe aceptar hexadecimal en mayúsculas");
+    }
+}
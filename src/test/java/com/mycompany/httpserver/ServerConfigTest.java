@@ -0,0 +1,108 @@
+package com.mycompany.httpserver;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Pruebas para la configuración del servidor recibida en startServer(args)
+ * Verifica el parseo de opciones y el arranque con varios hilos aceptadores
+ */
+public class ServerConfigTest {
+
+    @Test
+    public void testDefaults() {
+        ServerConfig config = ServerConfig.fromArgs(new String[0]);
+
+        assertEquals(35000, config.port, "El puerto por defecto debe ser 35000");
+        assertNull(config.bindAddress, "Por defecto debe escuchar en todas las interfaces");
+        assertEquals(1, config.acceptors, "Por defecto debe haber un solo aceptador");
+        assertTrue(config.logRequests, "Por defecto debe registrar las peticiones");
+    }
+
+    @Test
+    public void testListenOptions() {
+        ServerConfig config = ServerConfig.fromArgs(new String[]{
+            "--port=8080", "--bind=127.0.0.1", "--backlog=1024", "--acceptors=4", "--reuse-port=false",
+            "--log-requests=false", "--max-body-size=1024"
+        });
+
+        assertEquals(8080, config.port, "Debe leer el puerto");
+        assertEquals("127.0.0.1", config.bindAddress, "Debe leer la dirección de escucha");
+        assertEquals(1024, config.backlog, "Debe leer el backlog");
+        assertEquals(4, config.acceptors, "Debe leer el número de aceptadores");
+        assertFalse(config.reusePort, "Debe permitir desactivar SO_REUSEPORT");
+        assertFalse(config.logRequests, "Debe permitir desactivar el registro de peticiones");
+        assertEquals(1024, config.maxBodySize, "Debe leer el tamaño máximo del cuerpo");
+    }
+
+    @Test
+    public void testProxyOptions() {
+        ServerConfig config = ServerConfig.fromArgs(new String[]{
+            "--proxy=/api=localhost:9001,localhost:9002", "--proxy=/img=localhost:9003",
+            "--proxy-balance=least-connections", "--proxy-max-fails=5"
+        });
+        ReverseProxy proxy = ReverseProxy.fromConfig(config.proxies.get(0), config);
+
+        assertEquals(2, config.proxies.size(), "Debe admitir varias opciones --proxy");
+        assertEquals(ReverseProxy.Balancing.LEAST_CONNECTIONS, config.proxyBalancing, "Debe leer el balanceo");
+        assertEquals(5, config.proxyMaxFails, "Debe leer el número de fallos para expulsar");
+        assertEquals("/api", proxy.prefix, "Debe leer el prefijo");
+        assertEquals(2, proxy.upstreams.length, "Debe leer los upstreams separados por comas");
+        assertEquals(9002, proxy.upstreams[1].port, "Debe leer el puerto de cada upstream");
+        assertThrows(IllegalArgumentException.class,
+                     () -> ServerConfig.fromArgs(new String[]{"--proxy-balance=random"}),
+                     "Un balanceo desconocido debe ser rechazado");
+    }
+
+    @Test
+    public void testInvalidNumber() {
+        assertThrows(IllegalArgumentException.class,
+                     () -> ServerConfig.fromArgs(new String[]{"--port=abc"}),
+                     "Un valor no numérico debe ser rechazado");
+    }
+
+    @Test
+    public void testNullArgs() {
+        assertEquals(35000, ServerConfig.fromArgs(null).port, "Sin argumentos debe usar los valores por defecto");
+    }
+
+    @Test
+    public void testReusePortListenersShareEphemeralPort() throws IOException {
+        ServerConfig config = ServerConfig.fromArgs(new String[]{"--port=0", "--bind=127.0.0.1", "--acceptors=3"});
+        List<ServerSocket> sockets = HttpServer.bindListeners(config);
+        try {
+            int port = sockets.get(0).getLocalPort();
+            assertTrue(port > 0, "Debe asignarse un puerto efímero");
+            for (ServerSocket socket : sockets) {
+                assertEquals(port, socket.getLocalPort(), "Todos los sockets deben escuchar en el mismo puerto");
+            }
+        } finally {
+            for (ServerSocket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void testMultipleAcceptorsServeRequests() throws Exception {
+        TestServer server = TestServer.start("--acceptors=4", "--backlog=256");
+        try {
+            for (int i = 0; i < 40; i++) {
+                try (Socket socket = new Socket("localhost", server.port())) {
+                    socket.setSoTimeout(5000);
+                    socket.getOutputStream().write("GET /missing.txt HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                    assertEquals("HTTP/1.1 404 Not Found", in.readLine(), "Cada conexión debe ser atendida");
+                }
+            }
+        } finally {
+            HttpServer.stopServer();
+            server.thread().join(5000);
+        }
+        assertFalse(server.thread().isAlive(), "startServer debe terminar después de stopServer");
+    }
+}
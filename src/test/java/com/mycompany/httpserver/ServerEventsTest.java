@@ -0,0 +1,116 @@
+package com.mycompany.httpserver;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import jdk.jfr.Configuration;
+import jdk.jfr.EventType;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Pruebas de los eventos de JDK Flight Recorder y de la propagación de
+ * traceparent
+ * Graba con la configuración incluida en el proyecto y verifica que cada
+ * etapa de una petición queda registrada con su ruta, estado y traza
+ */
+public class ServerEventsTest {
+
+    private static int port;
+    private static final String TRACE_ID = "4bf92f3577b34da6a3ce929d0e0e4736";
+    private static final String TRACEPARENT = "00-" + TRACE_ID + "-00f067aa0ba902b7-01";
+
+    @BeforeAll
+    public static void startServer() throws Exception {
+        HttpServer.get("/hello", (req, resp) -> "Hello " + req.getValue("name"));
+        port = TestServer.start("--trace-context=true").port();
+    }
+
+    @AfterAll
+    public static void stopServer() throws IOException {
+        HttpServer.stopServer();
+    }
+
+    @Test
+    public void testEventsDisabledByDefault() {
+        assertFalse(EventType.getEventType(ServerEvents.Route.class).isEnabled(),
+                    "Los eventos no deben estar habilitados sin una grabación");
+        assertFalse(EventType.getEventType(ServerEvents.Write.class).isEnabled(),
+                    "Los eventos no deben estar habilitados sin una grabación");
+    }
+
+    @Test
+    public void testRequestStagesAreRecorded() throws Exception {
+        Configuration configuration = Configuration.create(Paths.get("src/main/resources/jfr/httpserver.jfc"));
+        Path file = Files.createTempFile("httpserver", ".jfr");
+        String request = "GET /app/hello?name=Jfr HTTP/1.1\r\nHost: localhost\r\ntraceparent: " + TRACEPARENT
+                + "\r\nConnection: close\r\n\r\n";
+        try (Recording recording = new Recording(configuration)) {
+            recording.start();
+            try (Socket socket = new Socket("localhost", port)) {
+                socket.setSoTimeout(5000);
+                OutputStream out = socket.getOutputStream();
+                out.write(request.getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+                assertTrue(response.endsWith("Hello Jfr"), "La petición debe atenderse normalmente");
+            }
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Files.delete(file);
+
+        assertTrue(events.stream().anyMatch(e -> e.getEventType().getName().equals("com.mycompany.httpserver.Accept")),
+                   "Debe registrarse la aceptación de la conexión");
+        for (String stage : new String[]{"Parse", "Route", "Handler", "Write"}) {
+            RecordedEvent event = events.stream()
+                    .filter(e -> e.getEventType().getName().equals("com.mycompany.httpserver." + stage))
+                    .filter(e -> "/app/hello".equals(e.getString("route")))
+                    .findFirst().orElse(null);
+            assertNotNull(event, "Debe registrarse la etapa " + stage);
+            assertEquals(TRACE_ID, event.getString("traceId"), "La etapa " + stage + " debe llevar el trace id recibido");
+        }
+        RecordedEvent parse = events.stream()
+                .filter(e -> e.getEventType().getName().equals("com.mycompany.httpserver.Parse"))
+                .filter(e -> "/app/hello".equals(e.getString("route")))
+                .findFirst().get();
+        assertEquals(request.length(), parse.getLong("bytes"), "El análisis debe contar los bytes de la petición");
+        RecordedEvent write = events.stream()
+                .filter(e -> e.getEventType().getName().equals("com.mycompany.httpserver.Write"))
+                .filter(e -> "/app/hello".equals(e.getString("route")))
+                .findFirst().get();
+        assertEquals(200, write.getInt("status"), "La escritura debe registrar el estado");
+        assertTrue(write.getLong("bytes") > "Hello Jfr".length(), "La escritura debe contar cabeceras y cuerpo");
+    }
+
+    @Test
+    public void testTraceContextJoinsIncomingTrace() {
+        TraceContext trace = TraceContext.start(TRACEPARENT);
+
+        assertEquals(TRACE_ID, trace.getTraceId(), "Debe continuar la traza del cliente");
+        assertEquals("00f067aa0ba902b7", trace.getParentId(), "El span del cliente debe quedar como padre");
+        assertNotEquals("00f067aa0ba902b7", trace.getSpanId(), "El servidor debe tener su propio span");
+        assertTrue(TraceContext.isValid(trace.traceparent()), "El traceparent saliente debe ser válido");
+        assertTrue(trace.traceparent().startsWith("00-" + TRACE_ID + "-"), "Debe propagar el mismo trace id");
+    }
+
+    @Test
+    public void testInvalidTraceparentStartsNewTrace() {
+        TraceContext trace = TraceContext.start("00-00000000000000000000000000000000-00f067aa0ba902b7-01");
+
+        assertNull(trace.getParentId(), "Un traceparent inválido no debe tener padre");
+        assertTrue(TraceContext.isValid(trace.traceparent()), "La nueva traza debe ser válida");
+        assertFalse(TraceContext.isValid("01-" + TRACE_ID + "-00f067aa0ba902b7-01x"), "Longitud inválida");
+        assertFalse(TraceContext.isValid("00-" + TRACE_ID.toUpperCase() + "-00f067aa0ba902b7-01"),
+                    "Solo se aceptan hexadecimales en minúscula");
+    }
+}
@@ -0,0 +1,36 @@
+package com.mycompany.httpserver;
+
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Servidor levantado por las pruebas de integración y los benchmarks.
+ * Arranca HttpServer en un hilo daemon con --port=0, así el sistema elige un
+ * puerto libre y las clases de prueba no chocan entre sí ni con otros
+ * procesos; un --port en los argumentos tiene prioridad.
+ */
+record TestServer(Thread thread, int port) {
+
+    /** Espera a que el servidor escuche; la prueba falla si no arranca */
+    static TestServer start(String... args) throws InterruptedException {
+        String[] withPort = new String[args.length + 1];
+        withPort[0] = "--port=0";
+        System.arraycopy(args, 0, withPort, 1, args.length);
+        Thread server = new Thread(() -> {
+            try {
+                HttpServer.startServer(withPort);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+        for (int i = 0; i < 200 && server.isAlive(); i++) {
+            int port = HttpServer.localPort();
+            if (port > 0) {
+                return new TestServer(server, port);
+            }
+            Thread.sleep(25);
+        }
+        return fail("El servidor no arrancó");
+    }
+}
@@ -0,0 +1,94 @@
+package com.mycompany.httpserver;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pruebas unitarias para TimingWheel
+ * Verifica que los temporizadores expiran, que la cancelación los descarta
+ * y que la rueda soporta una gran cantidad de temporizadores a la vez
+ */
+public class TimingWheelTest {
+
+    private TimingWheel wheel;
+
+    @BeforeEach
+    public void setUp() {
+        wheel = new TimingWheel(10, 64);
+        wheel.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        wheel.stop();
+    }
+
+    @Test
+    public void testTimeoutExpires() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        TimingWheel.Timeout timeout = wheel.schedule(fired::countDown, 50, TimeUnit.MILLISECONDS);
+
+        assertTrue(fired.await(2, TimeUnit.SECONDS), "La tarea debe ejecutarse al expirar el temporizador");
+        assertTrue(timeout.isExpired(), "El temporizador debe quedar marcado como expirado");
+        assertFalse(timeout.cancel(), "No se puede cancelar un temporizador ya expirado");
+    }
+
+    @Test
+    public void testTimeoutDoesNotFireEarly() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        long start = System.nanoTime();
+        wheel.schedule(fired::countDown, 200, TimeUnit.MILLISECONDS);
+
+        assertTrue(fired.await(2, TimeUnit.SECONDS), "La tarea debe ejecutarse");
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsedMillis >= 190, "La tarea no debe ejecutarse antes de tiempo: " + elapsedMillis + " ms");
+    }
+
+    @Test
+    public void testDelayLongerThanOneRevolution() throws InterruptedException {
+        // 64 ranuras de 10 ms dan una vuelta de 640 ms
+        CountDownLatch fired = new CountDownLatch(1);
+        long start = System.nanoTime();
+        wheel.schedule(fired::countDown, 900, TimeUnit.MILLISECONDS);
+
+        assertTrue(fired.await(3, TimeUnit.SECONDS), "La tarea debe ejecutarse tras varias vueltas");
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsedMillis >= 890, "Las vueltas restantes deben respetarse: " + elapsedMillis + " ms");
+    }
+
+    @Test
+    public void testCancelledTimeoutNeverFires() throws InterruptedException {
+        AtomicInteger fired = new AtomicInteger();
+        TimingWheel.Timeout timeout = wheel.schedule(fired::incrementAndGet, 30, TimeUnit.MILLISECONDS);
+
+        assertTrue(timeout.cancel(), "Un temporizador pendiente debe poder cancelarse");
+        Thread.sleep(150);
+        assertEquals(0, fired.get(), "Un temporizador cancelado no debe ejecutarse");
+        assertEquals(0, wheel.pendingTimeouts(), "No deben quedar temporizadores pendientes");
+    }
+
+    @Test
+    public void testManyTimeouts() throws InterruptedException {
+        int count = 100_000;
+        CountDownLatch fired = new CountDownLatch(count / 2);
+        TimingWheel.Timeout[] timeouts = new TimingWheel.Timeout[count];
+        for (int i = 0; i < count; i++) {
+            timeouts[i] = wheel.schedule(fired::countDown, 500 + (i % 200), TimeUnit.MILLISECONDS);
+        }
+        for (int i = 0; i < count; i += 2) {
+            assertTrue(timeouts[i].cancel(), "Los temporizadores pendientes deben poder cancelarse");
+        }
+
+        assertTrue(fired.await(5, TimeUnit.SECONDS), "Todos los temporizadores no cancelados deben expirar");
+        assertEquals(0, wheel.pendingTimeouts(), "No deben quedar temporizadores pendientes");
+    }
+
+    @Test
+    public void testInvalidTick() {
+        assertThrows(IllegalArgumentException.class, () -> new TimingWheel(0, 64),
+                     "Un tick de 0 ms debe ser rechazado");
+    }
+}